@@ -0,0 +1,556 @@
+package com.teamten.beanstalk.codegen;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates a {@code BinaryCodec} for each class annotated with
+ * {@code @BeanstalkPayload}, and a {@code META-INF/services} entry listing
+ * them. The generated code reads and writes fields directly, so there's no
+ * reflection at run time. See {@code BeanstalkPayload} for the rules a
+ * payload class must follow.
+ *
+ * <p>This module doesn't depend on the client library; the annotation and
+ * the codec base classes are referred to by name.</p>
+ */
+@SupportedAnnotationTypes(PayloadCodecProcessor.ANNOTATION)
+public class PayloadCodecProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "com.teamten.beanstalk.BeanstalkPayload";
+    private static final String LIBRARY_PACKAGE = "com.teamten.beanstalk";
+    private static final String SERVICE_FILE = "META-INF/services/" + LIBRARY_PACKAGE + ".PayloadCodec";
+
+    /**
+     * Qualified names of the codecs generated so far, for the service file
+     * written in the last round.
+     */
+    private final Set<String> generatedCodecs = new TreeSet<String>();
+
+    /**
+     * How a field is written and read.
+     */
+    private enum Kind {
+        BOOLEAN("Boolean", "writeBoolean", "in.readBoolean()"),
+        BYTE("Byte", "writeInt", "(byte) in.readInt()"),
+        SHORT("Short", "writeInt", "(short) in.readInt()"),
+        CHAR("Character", "writeInt", "(char) in.readInt()"),
+        INT("Integer", "writeInt", "in.readInt()"),
+        LONG("Long", "writeLong", "in.readLong()"),
+        FLOAT("Float", "writeFloat", "in.readFloat()"),
+        DOUBLE("Double", "writeDouble", "in.readDouble()"),
+        STRING(null, "writeString", "in.readString()"),
+        BYTES(null, "writeBytes", "in.readBytes()"),
+        ENUM(null, null, null);
+
+        /**
+         * The wrapper class of a primitive kind.
+         */
+        final String boxName;
+        final String writeMethod;
+        final String readExpression;
+
+        Kind(String boxName, String writeMethod, String readExpression) {
+            this.boxName = boxName;
+            this.writeMethod = writeMethod;
+            this.readExpression = readExpression;
+        }
+    }
+
+    /**
+     * A field of the payload, in the order it's written.
+     */
+    private static class Field {
+        final String name;
+        final Kind kind;
+        /**
+         * Whether a primitive kind is held in its wrapper, and so may be null.
+         */
+        final boolean boxed;
+        /**
+         * The qualified name of the enum class, for {@link Kind#ENUM}.
+         */
+        final String enumType;
+
+        Field(String name, Kind kind, boolean boxed, String enumType) {
+            this.name = name;
+            this.kind = kind;
+            this.boxed = boxed;
+            this.enumType = enumType;
+        }
+
+        String valuesConstant() {
+            return name.toUpperCase() + "_VALUES";
+        }
+    }
+
+    @Override // AbstractProcessor
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override // AbstractProcessor
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                generateCodec(element);
+            }
+        }
+        if (roundEnv.processingOver() && !generatedCodecs.isEmpty()) {
+            writeServiceFile();
+        }
+
+        return true;
+    }
+
+    // ****************************************************************
+    // Checking the payload class
+    // ****************************************************************
+
+    private void generateCodec(Element element) {
+        if (!checkClass(element)) {
+            return;
+        }
+        TypeElement type = (TypeElement) element;
+        List<Field> fields = collectFields(type);
+        if (fields == null) {
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String typeName = type.getQualifiedName().toString();
+        if (!packageName.isEmpty()) {
+            typeName = typeName.substring(packageName.length() + 1);
+        }
+        String codecName = typeName.replace('.', '_') + "Codec";
+        String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(qualifiedCodecName, type).openWriter();
+            try (PrintWriter out = new PrintWriter(writer)) {
+                writeCodec(out, packageName, typeName, codecName, fields);
+            }
+            generatedCodecs.add(qualifiedCodecName);
+        } catch (IOException e) {
+            error(type, "can't write " + qualifiedCodecName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Check that the annotated element is a class the codec can construct.
+     * Reports the problem and returns false if not.
+     */
+    private boolean checkClass(Element element) {
+        if (element.getKind() != ElementKind.CLASS) {
+            error(element, "@BeanstalkPayload must be on a class");
+            return false;
+        }
+        TypeElement type = (TypeElement) element;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@BeanstalkPayload class must not be abstract");
+            return false;
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            error(type, "@BeanstalkPayload class must not be generic");
+            return false;
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            TypeElement t = (TypeElement) e;
+            if (t.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@BeanstalkPayload class must not be private or inside a private class");
+                return false;
+            }
+            if (t.getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC)) {
+                error(type, "@BeanstalkPayload class must not be an inner class");
+                return false;
+            }
+            if (t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS) {
+                error(type, "@BeanstalkPayload class must be a top-level or static nested class");
+                return false;
+            }
+        }
+
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        error(type, "@BeanstalkPayload class needs a non-private no-argument constructor");
+        return false;
+    }
+
+    /**
+     * The fields to write, superclass fields first, or null if any can't be
+     * handled.
+     */
+    private List<Field> collectFields(TypeElement type) {
+        // Superclasses from other packages may have fields we can't see,
+        // for example private ones in a class compiled against ct.sym.
+        Element payloadPackage = processingEnv.getElementUtils().getPackageOf(type);
+        List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        for (TypeElement t = type; t != null; t = superclassOf(t)) {
+            if (!processingEnv.getElementUtils().getPackageOf(t).equals(payloadPackage)) {
+                error(type, "@BeanstalkPayload superclass " + t.getQualifiedName() + " must be in " + payloadPackage);
+                return null;
+            }
+            hierarchy.add(t);
+        }
+        Collections.reverse(hierarchy);
+
+        List<Field> fields = new ArrayList<Field>();
+        boolean ok = true;
+        for (TypeElement t : hierarchy) {
+            for (VariableElement variable : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = variable.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                Field field = toField(variable);
+                if (modifiers.contains(Modifier.PRIVATE)) {
+                    error(variable, "payload field must not be private");
+                    ok = false;
+                } else if (modifiers.contains(Modifier.FINAL)) {
+                    error(variable, "payload field must not be final");
+                    ok = false;
+                } else if (field == null) {
+                    error(variable, "payload field type " + variable.asType() + " is not supported");
+                    ok = false;
+                } else {
+                    fields.add(field);
+                }
+            }
+        }
+
+        return ok ? fields : null;
+    }
+
+    /**
+     * The superclass of a class, or null if it's Object.
+     */
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    /**
+     * Map a field to how it's encoded, or null if its type isn't supported.
+     */
+    private Field toField(VariableElement variable) {
+        String name = variable.getSimpleName().toString();
+        TypeMirror type = variable.asType();
+
+        if (type.getKind().isPrimitive()) {
+            return new Field(name, primitiveKind(type.getKind()), false, null);
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            return component.getKind() == TypeKind.BYTE ? new Field(name, Kind.BYTES, false, null) : null;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (element.getKind() == ElementKind.ENUM) {
+            return new Field(name, Kind.ENUM, false, element.getQualifiedName().toString());
+        }
+        if (element.getQualifiedName().contentEquals("java.lang.String")) {
+            return new Field(name, Kind.STRING, false, null);
+        }
+        try {
+            TypeMirror unboxed = processingEnv.getTypeUtils().unboxedType(type);
+            return new Field(name, primitiveKind(unboxed.getKind()), true, null);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Kind primitiveKind(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+
+            case BYTE:
+                return Kind.BYTE;
+
+            case SHORT:
+                return Kind.SHORT;
+
+            case CHAR:
+                return Kind.CHAR;
+
+            case INT:
+                return Kind.INT;
+
+            case LONG:
+                return Kind.LONG;
+
+            case FLOAT:
+                return Kind.FLOAT;
+
+            case DOUBLE:
+                return Kind.DOUBLE;
+
+            default:
+                throw new IllegalArgumentException("not a primitive: " + kind);
+        }
+    }
+
+    // ****************************************************************
+    // Writing the codec
+    // ****************************************************************
+
+    private static void writeCodec(PrintWriter out, String packageName, String typeName, String codecName,
+            List<Field> fields) {
+
+        boolean hasEnums = false;
+        boolean usesArrays = false;
+        boolean usesObjects = false;
+        for (Field field : fields) {
+            hasEnums |= field.kind == Kind.ENUM;
+            usesArrays |= field.kind == Kind.BYTES;
+            usesObjects |= field.kind == Kind.STRING || field.kind == Kind.ENUM || field.boxed;
+        }
+
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("import " + LIBRARY_PACKAGE + ".BinaryCodec;");
+        out.println("import " + LIBRARY_PACKAGE + ".BinaryReader;");
+        out.println("import " + LIBRARY_PACKAGE + ".BinaryWriter;");
+        out.println();
+        out.println("import java.io.IOException;");
+        if (usesArrays) {
+            out.println("import java.util.Arrays;");
+        }
+        if (usesObjects) {
+            out.println("import java.util.Objects;");
+        }
+        out.println();
+        out.println("/**");
+        out.println(" * Codec for {@link " + typeName + "}, generated from its fields by");
+        out.println(" * " + PayloadCodecProcessor.class.getName() + ". Do not edit.");
+        out.println(" */");
+        out.println("public final class " + codecName + " extends BinaryCodec<" + typeName + "> {");
+        for (Field field : fields) {
+            if (field.kind == Kind.ENUM) {
+                out.println("    private static final " + field.enumType + "[] " + field.valuesConstant()
+                        + " = " + field.enumType + ".values();");
+            }
+        }
+        if (hasEnums) {
+            out.println();
+        }
+        out.println("    public " + codecName + "() {");
+        out.println("        super(" + typeName + ".class);");
+        out.println("    }");
+
+        out.println();
+        out.println("    @Override // BinaryCodec");
+        out.println("    protected void write(" + typeName + " value, BinaryWriter out) {");
+        for (Field field : fields) {
+            writeField(out, field);
+        }
+        out.println("    }");
+
+        out.println();
+        out.println("    @Override // BinaryCodec");
+        out.println("    protected " + typeName + " read(BinaryReader in) throws IOException {");
+        out.println("        " + typeName + " value = new " + typeName + "();");
+        for (Field field : fields) {
+            out.println("        value." + field.name + " = " + readExpression(field) + ";");
+        }
+        out.println("        return value;");
+        out.println("    }");
+
+        out.println();
+        out.println("    /**");
+        out.println("     * Whether {@code other} is a {@code " + typeName + "} of the same class with equal fields.");
+        out.println("     */");
+        out.println("    public static boolean fieldsEqual(" + typeName + " value, Object other) {");
+        out.println("        if (value == other) {");
+        out.println("            return true;");
+        out.println("        }");
+        out.println("        if (other == null || other.getClass() != value.getClass()) {");
+        out.println("            return false;");
+        out.println("        }");
+        if (fields.isEmpty()) {
+            out.println("        return true;");
+        } else {
+            out.println("        " + typeName + " that = (" + typeName + ") other;");
+            for (int i = 0; i < fields.size(); i++) {
+                out.println((i == 0 ? "        return " : "            && ") + equalsExpression(fields.get(i))
+                        + (i == fields.size() - 1 ? ";" : ""));
+            }
+        }
+        out.println("    }");
+
+        out.println();
+        out.println("    /**");
+        out.println("     * A hash code over the fields compared by {@link #fieldsEqual}.");
+        out.println("     */");
+        out.println("    public static int fieldsHashCode(" + typeName + " value) {");
+        out.println("        int hash = 1;");
+        for (Field field : fields) {
+            out.println("        hash = 31*hash + " + hashExpression(field) + ";");
+        }
+        out.println("        return hash;");
+        out.println("    }");
+
+        if (hasEnums) {
+            out.println();
+            out.println("    private static <E> E enumValue(E[] values, int ordinal) throws IOException {");
+            out.println("        if (ordinal == -1) {");
+            out.println("            return null;");
+            out.println("        }");
+            out.println("        if (ordinal < 0 || ordinal >= values.length) {");
+            out.println("            throw new IOException(\"enum ordinal \" + ordinal + \" out of range in payload\");");
+            out.println("        }");
+            out.println("        return values[ordinal];");
+            out.println("    }");
+        }
+        out.println("}");
+    }
+
+    private static void writeField(PrintWriter out, Field field) {
+        String value = "value." + field.name;
+        if (field.kind == Kind.ENUM) {
+            out.println("        out.writeInt(" + value + " == null ? -1 : " + value + ".ordinal());");
+        } else if (field.boxed) {
+            out.println("        out.writeBoolean(" + value + " != null);");
+            out.println("        if (" + value + " != null) {");
+            out.println("            out." + field.kind.writeMethod + "(" + value + ");");
+            out.println("        }");
+        } else {
+            out.println("        out." + field.kind.writeMethod + "(" + value + ");");
+        }
+    }
+
+    private static String readExpression(Field field) {
+        if (field.kind == Kind.ENUM) {
+            return "enumValue(" + field.valuesConstant() + ", in.readInt())";
+        }
+        if (field.boxed) {
+            return "in.readBoolean() ? " + field.kind.boxName + ".valueOf(" + field.kind.readExpression + ") : null";
+        }
+        return field.kind.readExpression;
+    }
+
+    private static String equalsExpression(Field field) {
+        String a = "value." + field.name;
+        String b = "that." + field.name;
+        if (field.boxed || field.kind == Kind.STRING || field.kind == Kind.ENUM) {
+            return "Objects.equals(" + a + ", " + b + ")";
+        }
+        switch (field.kind) {
+            case FLOAT:
+                return "Float.compare(" + a + ", " + b + ") == 0";
+
+            case DOUBLE:
+                return "Double.compare(" + a + ", " + b + ") == 0";
+
+            case BYTES:
+                return "Arrays.equals(" + a + ", " + b + ")";
+
+            default:
+                return a + " == " + b;
+        }
+    }
+
+    private static String hashExpression(Field field) {
+        String a = "value." + field.name;
+        if (field.boxed || field.kind == Kind.STRING || field.kind == Kind.ENUM) {
+            return "Objects.hashCode(" + a + ")";
+        }
+        switch (field.kind) {
+            case BYTES:
+                return "Arrays.hashCode(" + a + ")";
+
+            case BYTE:
+            case SHORT:
+            case CHAR:
+            case INT:
+                return a;
+
+            default:
+                return field.kind.boxName + ".hashCode(" + a + ")";
+        }
+    }
+
+    // ****************************************************************
+    // Service file
+    // ****************************************************************
+
+    private void writeServiceFile() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (PrintWriter out = new PrintWriter(file.openWriter())) {
+                for (String codec : generatedCodecs) {
+                    out.println(codec);
+                }
+            }
+        } catch (IOException e) {
+            error(null, "can't write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        Messager messager = processingEnv.getMessager();
+        if (element == null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, message);
+        } else {
+            messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        }
+    }
+}
@@ -1,58 +1,33 @@
 package com.kroger.digital.receipts.queue.example;
 
-import com.teamten.beanstalk.BeanstalkClient;
-import com.teamten.beanstalk.BeanstalkClientImpl;
+import com.teamten.beanstalk.BeanstalkConsumerRuntime;
 import com.teamten.beanstalk.Job;
+import com.teamten.beanstalk.JobHandler;
 
-import java.io.*;
-import java.net.SocketTimeoutException;
+import java.util.Collections;
 
 /**
  * Created by kon3982 on 1/26/16.
  */
 public class BeanstalkMessageConsumer {
 
-    public static void main(String[] args) throws Exception {
-        BeanstalkClient client = null;
-        try {
-            client = createClient();
+    /**
+     * How many receipts to process at once. Each consumer has its own
+     * thread and its own connection to beanstalkd, and on Java 8 the
+     * threads are platform threads, so keep this small.
+     */
+    private static final int CONCURRENCY = Runtime.getRuntime().availableProcessors();
 
-            while(true) {
-                try {
-                    Job job = client.reserve(null);
-                    if (job != null) {
-                        Object data = deserialize(job.getData());
-                        QueueMessage message = (QueueMessage)data;
+    public static void main(String[] args) throws Exception {
+        BeanstalkConsumerRuntime runtime = new BeanstalkConsumerRuntime(
+                Collections.singletonList("default"), CONCURRENCY, new JobHandler() {
+                    public void handle(Job job) throws Exception {
+                        QueueMessage message = job.getPayload(QueueMessage.class);
                         System.out.println(message);
-                        client.delete(job.getJobId());
                     }
-
-                } catch (Exception e) {
-                    System.out.println(e.getCause());
-                }
-            }
-
-
-        } catch (Exception clientException) {
-            clientException.printStackTrace();
-        } finally {
-            if (client != null) {
-                client.close();
-            }
-        }
+                });
+        runtime.start();
+        runtime.awaitTermination();
     }
 
-    public static BeanstalkClient createClient() throws Exception {
-        BeanstalkClient client = new BeanstalkClientImpl();
-        return client;
-    }
-
-    public static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-        ObjectInputStream is = new ObjectInputStream(in);
-        return is.readObject();
-    }
-
-
-
 }
@@ -0,0 +1,60 @@
+package com.kroger.digital.receipts.queue.example;
+
+import com.teamten.beanstalk.JsonCodec;
+import com.teamten.beanstalk.JsonReader;
+import com.teamten.beanstalk.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Encodes a {@link QueueMessage} as a JSON object, for tubes read by
+ * consumers in other languages. The generated binary QueueMessageCodec is
+ * the one registered by default; register this one with
+ * {@link com.teamten.beanstalk.PayloadCodecs#register} on both the producer
+ * and the consumer to use JSON instead.
+ *
+ * <p>JSON codecs are written by hand like this one; only binary codecs are
+ * generated.</p>
+ */
+public class QueueMessageJsonCodec extends JsonCodec<QueueMessage> {
+
+    public QueueMessageJsonCodec() {
+        super(QueueMessage.class);
+    }
+
+    @Override
+    protected void write(QueueMessage message, JsonWriter out) throws IOException {
+        out.beginObject()
+                .name("userId").value(message.userId)
+                .name("division").value(message.division)
+                .name("store").value(message.store)
+                .name("terminalId").value(message.terminalId)
+                .name("dateReceived").value(message.dateReceived)
+                .endObject();
+    }
+
+    @Override
+    protected QueueMessage read(JsonReader in) throws IOException {
+        QueueMessage message = new QueueMessage();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("userId")) {
+                message.userId = in.nextString();
+            } else if (name.equals("division")) {
+                message.division = in.nextString();
+            } else if (name.equals("store")) {
+                message.store = in.nextString();
+            } else if (name.equals("terminalId")) {
+                message.terminalId = in.nextString();
+            } else if (name.equals("dateReceived")) {
+                message.dateReceived = in.nextString();
+            } else {
+                // Added by a newer producer.
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return message;
+    }
+}
@@ -0,0 +1,142 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous version of {@link BeanstalkClient}. Every method sends its
+ * command right away and returns a future that completes when the response
+ * arrives, so any number of commands can be in flight on one connection.
+ * Responses arrive, and futures complete, in the order the commands were
+ * sent.
+ *
+ * <p>Futures complete on the client's I/O thread, as do any dependent stages
+ * added with the non-async {@link CompletableFuture} methods. Hand heavy work
+ * off to another executor. A future fails with {@link BeanstalkException}
+ * wherever the equivalent {@link BeanstalkClient} method would throw it, and
+ * with {@link java.io.IOException} on network error.</p>
+ *
+ * <p>Implementations are thread-safe. See {@link BeanstalkClient} for the
+ * meaning of each command.</p>
+ */
+public interface AsyncBeanstalkClient {
+    // ****************************************************************
+    // Producer methods
+    // ****************************************************************
+
+    public CompletableFuture<Long> put(long priority, int delaySeconds, int timeToRun, byte[] data);
+
+    public CompletableFuture<Void> useTube(String tubeName);
+
+    // ****************************************************************
+    // Consumer methods
+    //	job-related
+    // ****************************************************************
+
+    /**
+     * Reserve a job. Commands sent after a reserve on the same client don't
+     * complete until the reserve does.
+     */
+    public CompletableFuture<Job> reserve(Integer timeoutSeconds);
+
+    public CompletableFuture<Boolean> delete(long jobId);
+
+    public CompletableFuture<Boolean> release(long jobId, long priority, int delaySeconds);
+
+    public CompletableFuture<Boolean> bury(long jobId, long priority);
+
+    public CompletableFuture<Boolean> touch(long jobId);
+
+    // ****************************************************************
+    // Consumer methods
+    //	tube-related
+    // ****************************************************************
+
+    public CompletableFuture<Integer> watch(String tubeName);
+
+    public CompletableFuture<Integer> ignore(String tubeName);
+
+    // ****************************************************************
+    // Consumer methods
+    //	peek-related
+    // ****************************************************************
+
+    public CompletableFuture<Job> peek(long jobId);
+
+    public CompletableFuture<Job> peekReady();
+
+    public CompletableFuture<Job> peekDelayed();
+
+    public CompletableFuture<Job> peekBuried();
+
+    public CompletableFuture<Integer> kick(int count);
+
+    // ****************************************************************
+    // Consumer methods
+    //	stats-related
+    // ****************************************************************
+
+    public CompletableFuture<Map<String, String>> statsJob(long jobId);
+
+    public CompletableFuture<Map<String, String>> statsTube(String tubeName);
+
+    public CompletableFuture<Map<String, String>> stats();
+
+    public CompletableFuture<List<String>> listTubes();
+
+    public CompletableFuture<String> listTubeUsed();
+
+    public CompletableFuture<List<String>> listTubesWatched();
+
+    // ****************************************************************
+    // Bulk methods
+    // ****************************************************************
+
+    public CompletableFuture<long[]> putAll(long priority, int delaySeconds, int timeToRun, Collection<byte[]> data);
+
+    public CompletableFuture<BitSet> deleteAll(long[] jobIds);
+
+    public CompletableFuture<BitSet> releaseAll(long[] jobIds, long priority, int delaySeconds);
+
+    public CompletableFuture<BitSet> buryAll(long[] jobIds, long priority);
+
+    // ****************************************************************
+    // Client methods
+    // ****************************************************************
+
+    public String getClientVersion();
+
+    public CompletableFuture<String> getServerVersion();
+
+    public CompletableFuture<Boolean> pauseTube(String tubeName, int pause);
+
+    /**
+     * Close the connection. Commands still in flight fail.
+     */
+    public void close();
+}
@@ -0,0 +1,70 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter for reconnects: each delay is drawn
+ * uniformly up to a bound that starts at the options' base delay and
+ * doubles up to their maximum, so that clients that lost the same server
+ * don't all come back at once.
+ *
+ * <p>Reads and writes of the bound are atomic, but a reset racing a
+ * {@link #nextDelayMillis()} may be lost; that only costs one longer
+ * delay.</p>
+ */
+final class Backoff {
+    private final long baseMillis;
+    private final long maxMillis;
+    private volatile long bound;
+
+    Backoff(BeanstalkClientOptions options) {
+        baseMillis = options.getReconnectBaseDelayMillis();
+        maxMillis = options.getReconnectMaxDelayMillis();
+        bound = baseMillis;
+    }
+
+    /**
+     * Start again from the base delay, after a successful connection.
+     */
+    void reset() {
+        bound = baseMillis;
+    }
+
+    /**
+     * @return the next delay, and double the bound for the one after.
+     */
+    long nextDelayMillis() {
+        long bound = this.bound;
+        this.bound = Math.min(bound*2, maxMillis);
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Sleep for the next delay.
+     */
+    void sleep() throws InterruptedException {
+        Thread.sleep(nextDelayMillis());
+    }
+}
@@ -0,0 +1,184 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * When and how a {@link BackpressureProducer} holds back puts. Pressure
+ * starts when any sampled figure reaches its high-water mark and stops
+ * once every figure is back down to its low-water mark; the gap keeps the
+ * producer from flapping around a single threshold. A high-water mark of
+ * zero turns that figure off.
+ */
+public class BackpressurePolicy {
+    private BackpressureMode mode = BackpressureMode.Block;
+    private long tubeReadyHighWater = 100*1000;
+    private long tubeReadyLowWater = 50*1000;
+    private long serverJobsHighWater = 0;
+    private long serverJobsLowWater = 0;
+    private long binlogFilesHighWater = 0;
+    private long binlogFilesLowWater = 0;
+    private int sampleIntervalMillis = 1000;
+    private int slowDelayMillis = 10;
+    private int blockTimeoutMillis = 30*1000;
+
+    /**
+     * Create a policy with the defaults.
+     */
+    public BackpressurePolicy() {
+    }
+
+    /**
+     * Create a copy of other.
+     */
+    public BackpressurePolicy(BackpressurePolicy other) {
+        mode = other.mode;
+        tubeReadyHighWater = other.tubeReadyHighWater;
+        tubeReadyLowWater = other.tubeReadyLowWater;
+        serverJobsHighWater = other.serverJobsHighWater;
+        serverJobsLowWater = other.serverJobsLowWater;
+        binlogFilesHighWater = other.binlogFilesHighWater;
+        binlogFilesLowWater = other.binlogFilesLowWater;
+        sampleIntervalMillis = other.sampleIntervalMillis;
+        slowDelayMillis = other.slowDelayMillis;
+        blockTimeoutMillis = other.blockTimeoutMillis;
+    }
+
+    public BackpressureMode getMode() {
+        return mode;
+    }
+
+    /**
+     * What to do with puts under pressure. Defaults to
+     * {@link BackpressureMode#Block}.
+     */
+    public void setMode(BackpressureMode mode) {
+        if (mode == null) {
+            throw new NullPointerException("null mode");
+        }
+        this.mode = mode;
+    }
+
+    public long getTubeReadyHighWater() {
+        return tubeReadyHighWater;
+    }
+
+    public long getTubeReadyLowWater() {
+        return tubeReadyLowWater;
+    }
+
+    /**
+     * Marks for the tube's {@code current-jobs-ready}, the backlog that
+     * consumers haven't reached. Default to 100,000 and 50,000.
+     */
+    public void setTubeReadyWaterMarks(long highWater, long lowWater) {
+        checkMarks(highWater, lowWater);
+        tubeReadyHighWater = highWater;
+        tubeReadyLowWater = lowWater;
+    }
+
+    public long getServerJobsHighWater() {
+        return serverJobsHighWater;
+    }
+
+    public long getServerJobsLowWater() {
+        return serverJobsLowWater;
+    }
+
+    /**
+     * Marks for the jobs the server holds in all tubes and states, which is
+     * what its memory grows with. Off by default.
+     */
+    public void setServerJobsWaterMarks(long highWater, long lowWater) {
+        checkMarks(highWater, lowWater);
+        serverJobsHighWater = highWater;
+        serverJobsLowWater = lowWater;
+    }
+
+    public long getBinlogFilesHighWater() {
+        return binlogFilesHighWater;
+    }
+
+    public long getBinlogFilesLowWater() {
+        return binlogFilesLowWater;
+    }
+
+    /**
+     * Marks for the number of binlog files the server keeps, which is what
+     * its disk use grows with. Off by default.
+     */
+    public void setBinlogFilesWaterMarks(long highWater, long lowWater) {
+        checkMarks(highWater, lowWater);
+        binlogFilesHighWater = highWater;
+        binlogFilesLowWater = lowWater;
+    }
+
+    public int getSampleIntervalMillis() {
+        return sampleIntervalMillis;
+    }
+
+    /**
+     * How often to sample the server. Defaults to one second.
+     */
+    public void setSampleIntervalMillis(int sampleIntervalMillis) {
+        if (sampleIntervalMillis <= 0) {
+            throw new IllegalArgumentException("invalid interval");
+        }
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    public int getSlowDelayMillis() {
+        return slowDelayMillis;
+    }
+
+    /**
+     * How long {@link BackpressureMode#Slow} delays each put. Defaults to
+     * 10 ms.
+     */
+    public void setSlowDelayMillis(int slowDelayMillis) {
+        if (slowDelayMillis < 0) {
+            throw new IllegalArgumentException("invalid delay");
+        }
+        this.slowDelayMillis = slowDelayMillis;
+    }
+
+    public int getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * How long {@link BackpressureMode#Block} waits for the pressure to
+     * stop. Zero means forever. Defaults to 30 seconds.
+     */
+    public void setBlockTimeoutMillis(int blockTimeoutMillis) {
+        if (blockTimeoutMillis < 0) {
+            throw new IllegalArgumentException("invalid timeout");
+        }
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    private static void checkMarks(long highWater, long lowWater) {
+        if (highWater < 0 || lowWater < 0 || lowWater > highWater) {
+            throw new IllegalArgumentException("invalid water marks");
+        }
+    }
+}
@@ -22,6 +22,8 @@ package com.teamten.beanstalk;
  */
 
 import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -56,10 +58,28 @@ public interface BeanstalkClient {
      * @return the job ID.
      *
      * @throws IOException on network error.
-     * @throws BeanstalkException on protocol error.
+     * @throws JobTooBigException if the server rejects the job as too big.
+     * @throws BeanstalkException on other protocol errors.
      */
     public long put(long priority, int delaySeconds, int timeToRun, byte[] data) throws IOException;
 
+    /**
+     * Put a value into a tube, encoded with the {@link PayloadCodec}
+     * registered for its class.
+     *
+     * @return the job ID.
+     *
+     * @throws IllegalArgumentException if no codec is registered for the
+     * value's class.
+     * @throws IOException on network error or if the codec fails.
+     * @see #put(long, int, int, byte[])
+     */
+    @SuppressWarnings("unchecked")
+    public default <T> long putPayload(long priority, int delaySeconds, int timeToRun, T payload) throws IOException {
+        PayloadCodec<T> codec = PayloadCodecs.forType((Class<T>) payload.getClass());
+        return put(priority, delaySeconds, timeToRun, codec.encode(payload));
+    }
+
     /**
      * Specify which tube to put future jobs into.
      *
@@ -85,9 +105,9 @@ public interface BeanstalkClient {
      * @return The reserved job, or null on timeout.
      *
      * @throws IOException on network error.
-     * @throws BeanstalkException on protocol error or DEADLINE_SOON, in which
-     * case the exception message is the string "DEADLINE_SOON". See the
-     * protocol docs for details.
+     * @throws DeadlineSoonException on DEADLINE_SOON. See the protocol docs
+     * for details.
+     * @throws BeanstalkException on other protocol errors.
      */
     public Job reserve(Integer timeoutSeconds) throws IOException;
 
@@ -396,6 +416,72 @@ public interface BeanstalkClient {
      */
     public List<String> listTubesWatched() throws IOException;
 
+    /******************************************************************
+     * Bulk methods
+     ******************************************************************/
+
+    /**
+     * Put many messages into the used tube in one pipelined burst, all with
+     * the same priority, delay and time to run.
+     *
+     * @param data The raw data for each message.
+     *
+     * @return the job IDs, in the order of data. An entry is -1 if that job
+     * was rejected by the server, for example with JOB_TOO_BIG.
+     *
+     * @throws IOException on network error.
+     */
+    public long[] putAll(long priority, int delaySeconds, int timeToRun, Collection<byte[]> data) throws IOException;
+
+    /**
+     * Delete many jobs in one pipelined burst.
+     *
+     * @param jobIds The jobs to delete.
+     *
+     * @return A bit set where bit i is set if jobIds[i] was found and deleted.
+     *
+     * @throws IOException on network error.
+     */
+    public BitSet deleteAll(long[] jobIds) throws IOException;
+
+    /**
+     * Release many reserved jobs in one pipelined burst, all with the same
+     * priority and delay.
+     *
+     * @param jobIds The jobs to release.
+     *
+     * @return A bit set where bit i is set if jobIds[i] was found and released.
+     *
+     * @throws IOException on network error.
+     */
+    public BitSet releaseAll(long[] jobIds, long priority, int delaySeconds) throws IOException;
+
+    /**
+     * Bury many reserved jobs in one pipelined burst, all with the same
+     * priority.
+     *
+     * @param jobIds The jobs to bury.
+     *
+     * @return A bit set where bit i is set if jobIds[i] was found and buried.
+     *
+     * @throws IOException on network error.
+     */
+    public BitSet buryAll(long[] jobIds, long priority) throws IOException;
+
+    /******************************************************************
+     * Pipelining
+     ******************************************************************/
+
+    /**
+     * Start a pipeline of commands on this client's connection. Commands
+     * queued on the pipeline are not sent until {@link Pipeline#sync()} is
+     * called, at which point they all go out in one write and their
+     * responses are read back in order.
+     *
+     * @return A new, empty pipeline.
+     */
+    public Pipeline pipeline();
+
     /******************************************************************
      * Client methods
      ******************************************************************/
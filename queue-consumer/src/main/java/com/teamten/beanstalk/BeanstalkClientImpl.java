@@ -23,6 +23,9 @@ package com.teamten.beanstalk;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -31,7 +34,6 @@ import java.util.Map;
  */
 public class BeanstalkClientImpl implements BeanstalkClient {
     private static final String CLIENT_VERSION = "1.4.8";
-    private static final long MAX_PRIORITY = 4294967296L;
     private ProtocolHandler protocolHandler = null;
 
     /**
@@ -50,7 +52,36 @@ public class BeanstalkClientImpl implements BeanstalkClient {
      * @throws IOException if it could not connect to the server.
      */
     public BeanstalkClientImpl(String host, int port) throws IOException {
-        protocolHandler = new ProtocolHandler(host, port);
+        this(host, port, new BeanstalkClientOptions());
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting through
+     * the given kind of transport.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public BeanstalkClientImpl(String host, int port, TransportType transportType) throws IOException {
+        this(host, port, options(transportType));
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting with the
+     * given options.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public BeanstalkClientImpl(String host, int port, BeanstalkClientOptions options) throws IOException {
+        protocolHandler = new ProtocolHandler(host, port, options);
+    }
+
+    /**
+     * The default options with the given transport.
+     */
+    static BeanstalkClientOptions options(TransportType transportType) {
+        BeanstalkClientOptions options = new BeanstalkClientOptions();
+        options.setTransportType(transportType);
+        return options;
     }
 
     // ****************************************************************
@@ -58,45 +89,13 @@ public class BeanstalkClientImpl implements BeanstalkClient {
     // ****************************************************************
     @Override // BeanstalkClient
     public long put(long priority, int delaySeconds, int timeToRun, byte[] data) throws IOException {
-        if (data == null) {
-            throw new NullPointerException("null data");
-        }
-        if (priority > MAX_PRIORITY) {
-            throw new IllegalArgumentException("invalid priority");
-        }
-        long jobId = -1;
-        Request request = new Request(
-                "put " + priority + " " + delaySeconds + " " + timeToRun + " " + data.length,
-                new String[] {
-                    "INSERTED", "BURIED"
-                },
-                new String[] {
-                    "JOB_TOO_BIG"
-                },
-                data,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.getStatus().equals("JOB_TOO_BIG")) {
-            throw new BeanstalkException(response.getStatus());
-        }
-        if (response != null && response.isMatchOk()) {
-            jobId = Long.parseLong(response.getReponse());
-        }
-        return jobId;
+        Response response = protocolHandler.processRequest(Commands.put(priority, delaySeconds, timeToRun, data));
+        return Commands.jobId(response);
     }
 
     @Override // BeanstalkClient
     public void useTube(String tubeName) throws IOException {
-        if (tubeName == null) {
-            throw new NullPointerException("null tubeName");
-        }
-        Request request = new Request(
-                "use " + tubeName,
-                "USING",
-                null,
-                null,
-                ExpectedResponse.None);
-        protocolHandler.processRequest(request);
+        protocolHandler.processRequest(Commands.useTube(tubeName));
     }
 
     // ****************************************************************
@@ -105,83 +104,28 @@ public class BeanstalkClientImpl implements BeanstalkClient {
     // ****************************************************************	
     @Override // BeanstalkClient
     public Job reserve(Integer timeoutSeconds) throws IOException {
-        Job job = null;
-        String command = (timeoutSeconds == null)
-                         ? "reserve"
-                         : "reserve-with-timeout " + timeoutSeconds.toString();
-        Request request = new Request(
-                command,
-                new String[] {
-                    "RESERVED"
-                },
-                new String[] {
-                    "DEADLINE_SOON", "TIMED_OUT",
-                },
-                null,
-                ExpectedResponse.ByteArray,
-                2);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.getStatus().equals("DEADLINE_SOON")) {
-            throw new BeanstalkException(response.getStatus());
-        }
-        if (response != null && response.isMatchOk()) {
-            long jobId = Long.parseLong(response.getReponse());
-            job = new JobImpl(jobId);
-            job.setData((byte[]) response.getData());
-        }
-        return job;
+        Response response = protocolHandler.processRequest(Commands.reserve(timeoutSeconds));
+        return Commands.reserved(response);
     }
 
     @Override // BeanstalkClient
     public boolean delete(long jobId) throws IOException {
-        Request request = new Request(
-                "delete " + jobId,
-                "DELETED",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        return response != null && response.isMatchOk();
+        return Commands.ok(protocolHandler.processRequest(Commands.delete(jobId)));
     }
 
     @Override // BeanstalkClient
     public boolean release(long jobId, long priority, int delaySeconds) throws IOException {
-        Request request = new Request(
-                "release " + jobId + " " + priority + " " + delaySeconds,
-                new String[] {
-                    "RELEASED"
-                },
-                new String[] {
-                    "NOT_FOUND", "BURIED"
-                },
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        return response != null && response.isMatchOk();
+        return Commands.ok(protocolHandler.processRequest(Commands.release(jobId, priority, delaySeconds)));
     }
 
     @Override // BeanstalkClient
     public boolean bury(long jobId, long priority) throws IOException {
-        Request request = new Request(
-                "bury " + jobId + " " + priority,
-                "BURIED",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        return response != null && response.isMatchOk();
+        return Commands.ok(protocolHandler.processRequest(Commands.bury(jobId, priority)));
     }
 
     @Override // BeanstalkClient
     public boolean touch(long jobId) throws IOException {
-        Request request = new Request(
-                "touch " + jobId,
-                "TOUCHED",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        return response != null && response.isMatchOk();
+        return Commands.ok(protocolHandler.processRequest(Commands.touch(jobId)));
     }
 
     // ****************************************************************
@@ -190,34 +134,12 @@ public class BeanstalkClientImpl implements BeanstalkClient {
     // ****************************************************************
     @Override // BeanstalkClient
     public int watch(String tubeName) throws IOException {
-        if (tubeName == null) {
-            throw new NullPointerException("null tubeName");
-        }
-        Request request = new Request(
-                "watch " + tubeName,
-                "WATCHING",
-                null,
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        return Integer.parseInt(response.getReponse());
+        return Commands.watching(protocolHandler.processRequest(Commands.watch(tubeName)));
     }
 
     @Override // BeanstalkClient
     public int ignore(String tubeName) throws IOException {
-        if (tubeName == null) {
-            throw new NullPointerException("null tubeName");
-        }
-        Request request = new Request(
-                "ignore " + tubeName,
-                new String[] {
-                    "WATCHING", "NOT_IGNORED"
-                },
-                null,
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        return (response.getReponse() == null) ? -1 : Integer.parseInt(response.getReponse());
+        return Commands.ignored(protocolHandler.processRequest(Commands.ignore(tubeName)));
     }
 
     // ****************************************************************
@@ -226,202 +148,146 @@ public class BeanstalkClientImpl implements BeanstalkClient {
     // ****************************************************************
     @Override // BeanstalkClient
     public Job peek(long jobId) throws IOException {
-        Job job = null;
-        Request request = new Request(
-                "peek " + jobId,
-                "FOUND",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.ByteArray,
-                2);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            jobId = Long.parseLong(response.getReponse());
-            job = new JobImpl(jobId);
-            job.setData((byte[]) response.getData());
-        }
-        return job;
+        return Commands.job(protocolHandler.processRequest(Commands.peek(jobId)));
     }
 
     @Override // BeanstalkClient
     public Job peekBuried() throws IOException {
-        Job job = null;
-        Request request = new Request(
-                "peek-buried",
-                "FOUND",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.ByteArray,
-                2);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            long jobId = Long.parseLong(response.getReponse());
-            job = new JobImpl(jobId);
-            job.setData((byte[]) response.getData());
-        }
-        return job;
+        return Commands.job(protocolHandler.processRequest(Commands.peekBuried()));
     }
 
     @Override // BeanstalkClient
     public Job peekDelayed() throws IOException {
-        Job job = null;
-        Request request = new Request(
-                "peek-delayed",
-                "FOUND",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.ByteArray,
-                2);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            long jobId = Long.parseLong(response.getReponse());
-            job = new JobImpl(jobId);
-            job.setData((byte[]) response.getData());
-        }
-        return job;
+        return Commands.job(protocolHandler.processRequest(Commands.peekDelayed()));
     }
 
     @Override // BeanstalkClient
     public Job peekReady() throws IOException {
-        Job job = null;
-        Request request = new Request(
-                "peek-ready",
-                "FOUND",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.ByteArray,
-                2);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            long jobId = Long.parseLong(response.getReponse());
-            job = new JobImpl(jobId);
-            job.setData((byte[]) response.getData());
-        }
-        return job;
+        return Commands.job(protocolHandler.processRequest(Commands.peekReady()));
     }
 
     @Override // BeanstalkClient
     public int kick(int count) throws IOException {
-        Request request = new Request(
-                "kick " + count,
-                "KICKED",
-                null,
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            count = Integer.parseInt(response.getReponse());
-        }
-        return count;
+        return Commands.kicked(protocolHandler.processRequest(Commands.kick(count)), count);
     }
 
     // ****************************************************************
     // Consumer methods
     //	stats-related
     // ****************************************************************
-    @SuppressWarnings("unchecked")
     @Override // BeanstalkClient
     public Map<String, String> statsJob(long jobId) throws IOException {
-        Request request = new Request(
-                "stats-job " + jobId,
-                "OK",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.Map);
-        Response response = protocolHandler.processRequest(request);
-        Map<String, String> map = null;
-        if (response != null && response.isMatchOk()) {
-            map = (Map<String, String>) response.getData();
-        }
-        return map;
+        return Commands.map(protocolHandler.processRequest(Commands.statsJob(jobId)));
     }
 
-    @SuppressWarnings("unchecked")
     @Override // BeanstalkClient
     public Map<String, String> statsTube(String tubeName) throws IOException {
         if (tubeName == null) {
             return null;
         }
-
-        Request request = new Request(
-                "stats-tube " + tubeName,
-                "OK",
-                "NOT_FOUND",
-                null,
-                ExpectedResponse.Map);
-        Response response = protocolHandler.processRequest(request);
-        Map<String, String> map = null;
-        if (response != null && response.isMatchOk()) {
-            map = (Map<String, String>) response.getData();
-        }
-        return map;
+        return Commands.map(protocolHandler.processRequest(Commands.statsTube(tubeName)));
     }
 
-    @SuppressWarnings("unchecked")
     @Override // BeanstalkClient
     public Map<String, String> stats() throws IOException {
-        Request request = new Request(
-                "stats",
-                "OK",
-                null,
-                null,
-                ExpectedResponse.Map);
-        Response response = protocolHandler.processRequest(request);
-        Map<String, String> map = null;
-        if (response != null && response.isMatchOk()) {
-            map = (Map<String, String>) response.getData();
-        }
-        return map;
+        return Commands.map(protocolHandler.processRequest(Commands.stats()));
     }
 
-    @SuppressWarnings("unchecked")
     @Override // BeanstalkClient
     public List<String> listTubes() throws IOException {
-        Request request = new Request(
-                "list-tubes",
-                "OK",
-                null,
-                null,
-                ExpectedResponse.List);
-        Response response = protocolHandler.processRequest(request);
-        List<String> list = null;
-        if (response != null && response.isMatchOk()) {
-            list = (List<String>) response.getData();
-        }
-        return list;
+        return Commands.list(protocolHandler.processRequest(Commands.listTubes()));
     }
 
     @Override // BeanstalkClient
     public String listTubeUsed() throws IOException {
-        String tubeName = null;
-        Request request = new Request(
-                "list-tube-used",
-                "USING",
-                null,
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            tubeName = response.getReponse();
-        }
-        return tubeName;
+        return Commands.tube(protocolHandler.processRequest(Commands.listTubeUsed()));
     }
 
-    @SuppressWarnings("unchecked")
     @Override // BeanstalkClient
     public List<String> listTubesWatched() throws IOException {
-        Request request = new Request(
-                "list-tubes-watched",
-                "OK",
-                null,
-                null,
-                ExpectedResponse.List);
-        Response response = protocolHandler.processRequest(request);
-        List<String> list = null;
-        if (response != null && response.isMatchOk()) {
-            list = (List<String>) response.getData();
+        return Commands.list(protocolHandler.processRequest(Commands.listTubesWatched()));
+    }
+
+    // ****************************************************************
+    // Bulk methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long[] putAll(long priority, int delaySeconds, int timeToRun, Collection<byte[]> data) throws IOException {
+        Pipeline pipeline = pipeline();
+        List<PipelineResult<Long>> results = new ArrayList<PipelineResult<Long>>(data.size());
+        for (byte[] d : data) {
+            results.add(pipeline.put(priority, delaySeconds, timeToRun, d));
+        }
+        pipeline.sync();
+
+        long[] jobIds = new long[results.size()];
+        for (int i = 0; i < jobIds.length; i++) {
+            try {
+                jobIds[i] = results.get(i).get();
+            } catch (BeanstalkException e) {
+                jobIds[i] = -1;
+            }
+        }
+        return jobIds;
+    }
+
+    @Override // BeanstalkClient
+    public BitSet deleteAll(long[] jobIds) throws IOException {
+        Pipeline pipeline = pipeline();
+        List<PipelineResult<Boolean>> results = new ArrayList<PipelineResult<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            results.add(pipeline.delete(jobId));
+        }
+        pipeline.sync();
+        return found(results);
+    }
+
+    @Override // BeanstalkClient
+    public BitSet releaseAll(long[] jobIds, long priority, int delaySeconds) throws IOException {
+        Pipeline pipeline = pipeline();
+        List<PipelineResult<Boolean>> results = new ArrayList<PipelineResult<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            results.add(pipeline.release(jobId, priority, delaySeconds));
         }
-        return list;
+        pipeline.sync();
+        return found(results);
+    }
+
+    @Override // BeanstalkClient
+    public BitSet buryAll(long[] jobIds, long priority) throws IOException {
+        Pipeline pipeline = pipeline();
+        List<PipelineResult<Boolean>> results = new ArrayList<PipelineResult<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            results.add(pipeline.bury(jobId, priority));
+        }
+        pipeline.sync();
+        return found(results);
+    }
+
+    /**
+     * Collect the results of a burst of job commands into a bit set, with a
+     * bit set for each job that was found.
+     */
+    private static BitSet found(List<PipelineResult<Boolean>> results) {
+        BitSet found = new BitSet(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                if (results.get(i).get()) {
+                    found.set(i);
+                }
+            } catch (BeanstalkException e) {
+                // Leave the bit clear.
+            }
+        }
+        return found;
+    }
+
+    // ****************************************************************
+    // Pipelining
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Pipeline pipeline() {
+        return new Pipeline(protocolHandler);
     }
 
     @Override // BeanstalkClient
@@ -436,17 +302,7 @@ public class BeanstalkClientImpl implements BeanstalkClient {
 
     @Override // BeanstalkClient
     public boolean pauseTube(String tubeName, int pauseDelay) throws IOException {
-        Request request = new Request(
-                "pause-tube " + tubeName + " " + pauseDelay,
-                "PAUSED",
-                null,
-                null,
-                ExpectedResponse.None);
-        Response response = protocolHandler.processRequest(request);
-        if (response != null && response.isMatchOk()) {
-            return true;
-        }
-        return false;
+        return Commands.ok(protocolHandler.processRequest(Commands.pauseTube(tubeName, pauseDelay)));
     }
 
     @Override // BeanstalkClient
@@ -0,0 +1,310 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe pool of connections to one server. {@link #borrow()} hands
+ * out a client for the exclusive use of the calling thread, and closing that
+ * client returns its connection to the pool instead of closing it.
+ *
+ * <p>Pooled connections remember the tube they use and the tubes they watch,
+ * and this state survives being returned to the pool. Borrowers should still
+ * set up the tubes they need: {@link BeanstalkClient#useTube},
+ * {@link BeanstalkClient#watch} and {@link BeanstalkClient#ignore} calls that
+ * wouldn't change anything are answered without asking the server.</p>
+ *
+ * <p>Connections that are idle longer than the idle timeout are closed,
+ * down to the minimum size. A connection that gets a network error is
+ * discarded when returned.</p>
+ */
+public class BeanstalkClientPool {
+    private final String host;
+    private final int port;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final BeanstalkClientOptions options;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition returned = lock.newCondition();
+    /**
+     * Idle connections, most recently returned first.
+     */
+    private final ArrayDeque<PooledBeanstalkClient> idle = new ArrayDeque<PooledBeanstalkClient>();
+    /**
+     * Connections open or being opened, idle or not.
+     */
+    private int size;
+    private boolean closed;
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Create a pool of at most maxSize connections, with no minimum, a
+     * one-minute idle timeout and a ten-second borrow timeout.
+     */
+    public BeanstalkClientPool(String host, int port, int maxSize) {
+        this(host, port, 0, maxSize, 60*1000L, 10*1000L);
+    }
+
+    /**
+     * Create a pool. No connection is made until needed, or until the
+     * pool's background thread tops it up to minSize.
+     *
+     * @param minSize How many connections to keep open even when idle.
+     * @param maxSize The most connections to have open at once.
+     * @param idleTimeoutMillis How long a connection may sit idle before it
+     * is closed, if there are more than minSize.
+     * @param borrowTimeoutMillis How long {@link #borrow()} waits for a
+     * connection when maxSize are already borrowed.
+     */
+    public BeanstalkClientPool(String host, int port, int minSize, int maxSize,
+                               long idleTimeoutMillis, long borrowTimeoutMillis) {
+        this(host, port, minSize, maxSize, idleTimeoutMillis, borrowTimeoutMillis, new BeanstalkClientOptions());
+    }
+
+    /**
+     * Create a pool whose connections are made with the given options. See
+     * {@link #BeanstalkClientPool(String, int, int, int, long, long)}.
+     */
+    public BeanstalkClientPool(String host, int port, int minSize, int maxSize,
+                               long idleTimeoutMillis, long borrowTimeoutMillis,
+                               BeanstalkClientOptions options) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("invalid pool size");
+        }
+        if (idleTimeoutMillis <= 0 || borrowTimeoutMillis < 0) {
+            throw new IllegalArgumentException("invalid timeout");
+        }
+        this.host = host;
+        this.port = port;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.options = new BeanstalkClientOptions(options);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "beanstalk-pool-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, idleTimeoutMillis/2);
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdle();
+                fillToMinimum();
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get a connection for the exclusive use of the caller, opening one if
+     * none is idle. Close the returned client to give the connection back.
+     *
+     * @throws IOException if a new connection could not be opened.
+     * @throws BeanstalkException if no connection became available within
+     * the borrow timeout.
+     * @throws IllegalStateException if the pool is closed.
+     */
+    public BeanstalkClient borrow() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("pool closed");
+                }
+                PooledBeanstalkClient client = idle.pollFirst();
+                if (client != null) {
+                    client.borrowed();
+                    return client;
+                }
+                if (size < maxSize) {
+                    size++;
+                    break;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new BeanstalkException("timed out waiting for a connection");
+                }
+                try {
+                    returned.awaitNanos(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BeanstalkException("interrupted waiting for a connection");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Connect outside the lock.
+        PooledBeanstalkClient client = open();
+        client.borrowed();
+        return client;
+    }
+
+    /**
+     * The number of connections currently open, idle or borrowed.
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of idle connections.
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the idle connections and stop handing out new ones. Borrowed
+     * connections are closed when they are returned.
+     */
+    public void close() {
+        maintenance.shutdownNow();
+        ArrayDeque<PooledBeanstalkClient> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayDeque<PooledBeanstalkClient>(idle);
+            size -= idle.size();
+            idle.clear();
+            returned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledBeanstalkClient client : toClose) {
+            client.closeConnection();
+        }
+    }
+
+    /**
+     * Open a connection whose slot has already been counted in size.
+     */
+    private PooledBeanstalkClient open() throws IOException {
+        try {
+            return new PooledBeanstalkClient(this, new BeanstalkClientImpl(host, port, options));
+        } catch (IOException | RuntimeException e) {
+            lock.lock();
+            try {
+                size--;
+                returned.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Take back a connection from a borrower.
+     */
+    void giveBack(PooledBeanstalkClient client) {
+        lock.lock();
+        try {
+            if (!closed && !client.isBroken()) {
+                client.setLastReturned(System.nanoTime());
+                idle.addFirst(client);
+                returned.signal();
+                return;
+            }
+            size--;
+            returned.signal();
+        } finally {
+            lock.unlock();
+        }
+        client.closeConnection();
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        ArrayDeque<PooledBeanstalkClient> toClose = new ArrayDeque<PooledBeanstalkClient>();
+        lock.lock();
+        try {
+            // The oldest are at the end.
+            Iterator<PooledBeanstalkClient> i = idle.descendingIterator();
+            while (i.hasNext() && size > minSize) {
+                PooledBeanstalkClient client = i.next();
+                if (now - client.getLastReturned() < idleTimeoutNanos) {
+                    break;
+                }
+                i.remove();
+                size--;
+                toClose.add(client);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledBeanstalkClient client : toClose) {
+            client.closeConnection();
+        }
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || size >= minSize) {
+                    return;
+                }
+                size++;
+            } finally {
+                lock.unlock();
+            }
+
+            PooledBeanstalkClient client;
+            try {
+                client = open();
+            } catch (IOException | RuntimeException e) {
+                // Try again next time.
+                return;
+            }
+            giveBack(client);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a fixed number of blocking consumers, each with its own connection
+ * and thread: reserve a job, hand it to the {@link JobHandler}, then delete
+ * it, or release or bury it as the {@link RetryPolicy} says if the handler
+ * throws. On Java 21 and later the threads are virtual, so a handler
+ * blocked on downstream I/O costs a parked virtual thread rather than a
+ * platform thread, and thousands of jobs can be in progress at once. On
+ * older JVMs they are ordinary daemon threads.
+ *
+ * <p>The connections use the {@link TransportType#Socket socket} transport,
+ * whose blocking reads park a virtual thread instead of pinning its carrier.
+ * A consumer whose connection breaks reconnects with the backoff set in the
+ * options, and watches its tubes again.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class BeanstalkConsumerRuntime {
+    private final String host;
+    private final int port;
+    private final BeanstalkClientOptions options;
+    private final List<String> tubes;
+    private final RetryPolicy retryPolicy;
+    private final JobHandler handler;
+    private final Consumer[] consumers;
+    private final ThreadFactory threadFactory = threadFactory("beanstalk-consumer-");
+    private volatile boolean running;
+
+    /**
+     * Create a runtime with the default {@link BeanstalkClient#DEFAULT_HOST host},
+     * {@link BeanstalkClient#DEFAULT_PORT port}, options and retry policy.
+     *
+     * @param tubes The tubes to watch. The default tube is ignored unless
+     * it's in the list.
+     * @param concurrency The number of consumers, and so of jobs that can be
+     * handled at once.
+     */
+    public BeanstalkConsumerRuntime(Collection<String> tubes, int concurrency, JobHandler handler) {
+        this(BeanstalkClient.DEFAULT_HOST, BeanstalkClient.DEFAULT_PORT, new BeanstalkClientOptions(),
+                tubes, concurrency, handler);
+    }
+
+    /**
+     * Create a runtime whose consumers connect with the given options, with
+     * the default retry policy. The transport type is always
+     * {@link TransportType#Socket}.
+     *
+     * @param tubes The tubes to watch. The default tube is ignored unless
+     * it's in the list.
+     * @param concurrency The number of consumers, and so of jobs that can be
+     * handled at once.
+     */
+    public BeanstalkConsumerRuntime(String host, int port, BeanstalkClientOptions options,
+                                    Collection<String> tubes, int concurrency, JobHandler handler) {
+        this(host, port, options, tubes, concurrency, new RetryPolicy(), handler);
+    }
+
+    /**
+     * Create a runtime whose consumers connect with the given options. The
+     * transport type is always {@link TransportType#Socket}.
+     *
+     * @param tubes The tubes to watch. The default tube is ignored unless
+     * it's in the list.
+     * @param concurrency The number of consumers, and so of jobs that can be
+     * handled at once.
+     * @param retryPolicy What to do with a job whose handler throws.
+     */
+    public BeanstalkConsumerRuntime(String host, int port, BeanstalkClientOptions options,
+                                    Collection<String> tubes, int concurrency, RetryPolicy retryPolicy,
+                                    JobHandler handler) {
+        if (tubes.isEmpty()) {
+            throw new IllegalArgumentException("no tubes");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("invalid concurrency");
+        }
+        if (handler == null) {
+            throw new NullPointerException("null handler");
+        }
+        this.host = host;
+        this.port = port;
+        this.options = new BeanstalkClientOptions(options);
+        this.options.setTransportType(TransportType.Socket);
+        this.tubes = new ArrayList<String>(tubes);
+        this.retryPolicy = new RetryPolicy(retryPolicy);
+        this.handler = handler;
+        consumers = new Consumer[concurrency];
+    }
+
+    /**
+     * Start the consumers. Each connects on its own thread, so a server
+     * that is down delays consumption rather than failing this call.
+     */
+    public void start() {
+        synchronized (consumers) {
+            if (running || consumers[0] != null) {
+                throw new IllegalStateException("already started");
+            }
+            running = true;
+            for (int i = 0; i < consumers.length; i++) {
+                consumers[i] = new Consumer();
+                consumers[i].thread.start();
+            }
+        }
+    }
+
+    /**
+     * Stop the consumers and close their connections. Jobs being handled
+     * are not waited for; their reservations end with the connection, and
+     * the server hands them out again.
+     */
+    public void close() {
+        synchronized (consumers) {
+            running = false;
+        }
+        // Closing a socket is I/O, so it's kept out of the lock, which would
+        // pin a virtual thread to its carrier.
+        for (Consumer consumer : consumers) {
+            if (consumer != null) {
+                consumer.closeClient();
+            }
+        }
+    }
+
+    /**
+     * Wait for the consumer threads to finish after {@link #close()}.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (Consumer consumer : consumers) {
+            if (consumer != null) {
+                consumer.thread.join();
+            }
+        }
+    }
+
+    /**
+     * Whether the consumers run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return !(threadFactory instanceof PlatformThreadFactory);
+    }
+
+    /**
+     * A factory for virtual threads if this JVM has them, else for daemon
+     * platform threads. Virtual threads arrived in Java 21, so they're
+     * reached by reflection to keep building for Java 8.
+     */
+    static ThreadFactory threadFactory(String namePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            // Before Java 21, or a preview that isn't enabled.
+            return new PlatformThreadFactory(namePrefix);
+        }
+    }
+
+    private static final class PlatformThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger next = new AtomicInteger();
+
+        PlatformThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override // ThreadFactory
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * One consumer's thread and connection.
+     */
+    private final class Consumer implements Runnable {
+        final Thread thread = threadFactory.newThread(this);
+        /**
+         * The current connection, or null between connections. Closed by
+         * {@link BeanstalkConsumerRuntime#close()} to unblock a reserve.
+         */
+        private volatile BeanstalkClientImpl client;
+
+        @Override // Runnable
+        public void run() {
+            Backoff backoff = new Backoff(options);
+            while (running) {
+                try {
+                    connect();
+                    backoff.reset();
+                    consume();
+                } catch (IOException e) {
+                    // Fall through to reconnect.
+                } finally {
+                    closeClient();
+                }
+                if (running) {
+                    // Spread out reconnects so that the consumers of a
+                    // restarted server don't all come back at once.
+                    try {
+                        backoff.sleep();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            BeanstalkClientImpl newClient = new BeanstalkClientImpl(host, port, options);
+            client = newClient;
+            // Close the connection if close() came in while it was being
+            // made and so didn't see it.
+            if (!running) {
+                throw new BeanstalkException("runtime closed");
+            }
+            Commands.watchOnly(newClient, tubes);
+        }
+
+        /**
+         * Reserve and handle jobs until the connection fails.
+         */
+        private void consume() throws IOException {
+            BeanstalkClientImpl client = this.client;
+            while (running) {
+                Job job = client.reserve(null);
+                if (job == null) {
+                    continue;
+                }
+                boolean handled;
+                try {
+                    handler.handle(job);
+                    handled = true;
+                } catch (Throwable e) {
+                    // Errors too, or the consumer would silently die.
+                    handled = false;
+                }
+                if (handled) {
+                    client.delete(job.getJobId());
+                } else {
+                    retry(client, job.getJobId());
+                }
+            }
+        }
+
+        /**
+         * Release or bury a job whose handler failed, keeping its priority.
+         */
+        private void retry(BeanstalkClientImpl client, long jobId) throws IOException {
+            Map<String, String> stats = client.statsJob(jobId);
+            if (stats == null) {
+                // Gone already, perhaps deleted by the handler.
+                return;
+            }
+            long priority = Commands.stat(stats, "pri");
+            int releases = (int) Commands.stat(stats, "releases");
+            if (retryPolicy.shouldBury(releases)) {
+                client.bury(jobId, priority);
+            } else {
+                client.release(jobId, priority, retryPolicy.delaySeconds(releases));
+            }
+        }
+
+        void closeClient() {
+            BeanstalkClientImpl client = this.client;
+            if (client != null) {
+                this.client = null;
+                client.close();
+            }
+        }
+    }
+}
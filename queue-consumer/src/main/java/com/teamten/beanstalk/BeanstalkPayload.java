@@ -0,0 +1,55 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as a job payload. The processor in {@code beanstalk-codegen}
+ * generates a {@link BinaryCodec} for it named after the class with
+ * {@code Codec} appended ({@code Outer_InnerCodec} for a nested class), and
+ * lists it as a {@link PayloadCodec} service so {@link PayloadCodecs} finds
+ * it without registration.
+ *
+ * <p>The codec writes the non-static, non-transient fields in declaration
+ * order, superclass fields first, with no names or class metadata; any
+ * superclasses must be in the same package. Fields
+ * may be primitives, their wrappers, {@code String}, {@code byte[]} or
+ * enums (written by ordinal), and must not be private or final; the class
+ * needs a non-private no-argument constructor. Adding, removing or
+ * reordering fields or enum constants changes the format, so drain the tube
+ * before deploying such a change.</p>
+ *
+ * <p>The generated class also has static {@code fieldsEqual} and
+ * {@code fieldsHashCode} methods over the same fields, for the payload's
+ * {@code equals} and {@code hashCode}.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface BeanstalkPayload {
+}
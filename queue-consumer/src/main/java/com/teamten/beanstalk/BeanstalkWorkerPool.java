@@ -0,0 +1,472 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a {@link JobHandler} over the jobs of some tubes on a pool of worker
+ * threads. One thread owns the connection: it reserves jobs, up to one per
+ * worker plus a prefetch depth so that a finishing worker finds the next
+ * job waiting in memory, and hands them to the workers. The buffer is
+ * topped up with pipelined bursts of reserves that don't wait, so filling
+ * it costs a couple of round trips rather than two per job. When a handler returns, the
+ * job is deleted; when it throws, the job is released or buried according
+ * to the {@link RetryPolicy}. Those commands go back through the reserving
+ * thread, since only the connection that reserved a job may finish it.
+ *
+ * <p>Each job's reservation deadline is worked out from the reserve time
+ * and the {@code time-left} reported by a stats-job right after it. While
+ * a job is held, a lease on a {@link HashedTimingWheel} touches it shortly
+ * before the deadline, so a slow handler doesn't lose its job to another
+ * consumer. The touches that fall due together are sent in one pipelined
+ * write with the deletes, releases and buries that workers have posted.
+ * A prefetched job whose deadline has passed by the time a worker is free
+ * is skipped rather than handled twice. Handlers get {@link WorkerJob}s,
+ * which carry the deadline.</p>
+ *
+ * <p>A broken connection is replaced after a backoff taken from the
+ * options' reconnect delays. Jobs in progress when it broke have gone back
+ * to the server, and their outcomes are dropped.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class BeanstalkWorkerPool {
+    /**
+     * How long a reserve blocks when no job is in progress, which bounds
+     * how long {@link #close()} takes to be noticed.
+     */
+    private static final int IDLE_RESERVE_SECONDS = 1;
+    /**
+     * How long to wait for a worker to finish before polling the server for
+     * more jobs, while some are in progress and there's room for more.
+     */
+    private static final long POLL_MILLIS = 50;
+    /**
+     * Resolution of the touch timers, and the number of buckets, which
+     * makes one turn of the wheel about 50 seconds.
+     */
+    private static final long LEASE_TICK_MILLIS = 100;
+    private static final int LEASE_WHEEL_SIZE = 512;
+    /**
+     * Touch a job this long before its deadline, unless a quarter of its
+     * TTR is longer, or half of it shorter.
+     */
+    private static final long LEASE_LEAD_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private final String host;
+    private final int port;
+    private final BeanstalkClientOptions options;
+    private final List<String> tubes;
+    private final int maxInFlight;
+    private final RetryPolicy retryPolicy;
+    private final JobHandler handler;
+    private final ThreadPoolExecutor workers;
+    private final Thread reserveThread;
+    private final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<Outcome>();
+    private volatile boolean running;
+
+    // Only touched by the reserve thread.
+    private BeanstalkClientImpl client;
+    private int generation;
+    private int inFlight;
+    /**
+     * Whether the last reserve found the tubes empty, in which case the next
+     * burst is a single reserve, so that an idle server isn't sent a full
+     * burst every poll.
+     */
+    private boolean drained;
+    private HashedTimingWheel<WorkerJob> leases;
+    private final List<WorkerJob> dueTouches = new ArrayList<WorkerJob>();
+
+    /**
+     * Create a pool with the default {@link BeanstalkClient#DEFAULT_HOST host},
+     * {@link BeanstalkClient#DEFAULT_PORT port}, options and retry policy,
+     * prefetching one job per thread.
+     *
+     * @param tubes The tubes to watch. The default tube is ignored unless
+     * it's in the list.
+     * @param threads The number of worker threads.
+     */
+    public BeanstalkWorkerPool(Collection<String> tubes, int threads, JobHandler handler) {
+        this(BeanstalkClient.DEFAULT_HOST, BeanstalkClient.DEFAULT_PORT, new BeanstalkClientOptions(),
+                tubes, threads, threads, new RetryPolicy(), handler);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param tubes The tubes to watch. The default tube is ignored unless
+     * it's in the list.
+     * @param threads The number of worker threads.
+     * @param prefetch How many jobs to hold reserved beyond those being
+     * handled.
+     */
+    public BeanstalkWorkerPool(String host, int port, BeanstalkClientOptions options, Collection<String> tubes,
+                               int threads, int prefetch, RetryPolicy retryPolicy, JobHandler handler) {
+        if (tubes.isEmpty()) {
+            throw new IllegalArgumentException("no tubes");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("invalid thread count");
+        }
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("invalid prefetch");
+        }
+        if (handler == null) {
+            throw new NullPointerException("null handler");
+        }
+        this.host = host;
+        this.port = port;
+        this.options = new BeanstalkClientOptions(options);
+        this.tubes = new ArrayList<String>(tubes);
+        this.maxInFlight = threads + prefetch;
+        this.retryPolicy = new RetryPolicy(retryPolicy);
+        this.handler = handler;
+
+        final AtomicInteger next = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "beanstalk-worker-" + next.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        reserveThread = new Thread(this::run, "beanstalk-worker-pool");
+        reserveThread.setDaemon(true);
+    }
+
+    /**
+     * Start reserving jobs. The connection is made on the reserving thread,
+     * so a server that is down delays work rather than failing this call.
+     */
+    public void start() {
+        synchronized (reserveThread) {
+            if (reserveThread.getState() != Thread.State.NEW) {
+                throw new IllegalStateException("already started");
+            }
+            running = true;
+            reserveThread.start();
+        }
+    }
+
+    /**
+     * Stop reserving jobs. Jobs being handled are finished as usual, and
+     * prefetched jobs that haven't started are released.
+     */
+    public void close() {
+        running = false;
+    }
+
+    /**
+     * Wait for the pool to wind down after {@link #close()}.
+     */
+    public void awaitTermination() throws InterruptedException {
+        reserveThread.join();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    // ****************************************************************
+    // Reserve thread
+    // ****************************************************************
+
+    private void run() {
+        Backoff backoff = new Backoff(options);
+        try {
+            while (true) {
+                leases = new HashedTimingWheel<WorkerJob>(LEASE_TICK_MILLIS, LEASE_WHEEL_SIZE, System.nanoTime());
+                try {
+                    connect();
+                    backoff.reset();
+                    work();
+                    return;
+                } catch (IOException e) {
+                    // Fall through to reconnect.
+                } finally {
+                    disconnect();
+                }
+
+                // The reservations ended with the connection, so outcomes
+                // still to come are for jobs that aren't ours any more.
+                generation++;
+                inFlight = 0;
+                if (!running) {
+                    return;
+                }
+                try {
+                    backoff.sleep();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        } finally {
+            running = false;
+            workers.shutdown();
+        }
+    }
+
+    private void connect() throws IOException {
+        client = new BeanstalkClientImpl(host, port, options);
+        Commands.watchOnly(client, tubes);
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    /**
+     * Reserve jobs and finish them until closed and drained.
+     */
+    private void work() throws IOException {
+        Outcome outcome = null;
+        while (true) {
+            flush(outcome);
+            outcome = null;
+            if (running && inFlight < maxInFlight) {
+                if (inFlight == 0) {
+                    // Nothing for the workers to finish, so block on the
+                    // server until there's work.
+                    Job job = client.reserve(IDLE_RESERVE_SECONDS);
+                    if (job == null) {
+                        continue;
+                    }
+                    drained = false;
+                    dispatch(Collections.singletonList(job));
+                }
+                if (reserveBurst(maxInFlight - inFlight) > 0) {
+                    continue;
+                }
+            } else if (!running && inFlight == 0) {
+                return;
+            }
+            try {
+                outcome = outcomes.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Send up to count reserves that don't wait in one write, and dispatch
+     * the jobs they get. A reserve that finds no job, or finds that a job
+     * already held is about to run out, gets none. Once a reserve has found
+     * no job, only one is sent until one finds a job again.
+     *
+     * @return the number of jobs reserved.
+     */
+    private int reserveBurst(int count) throws IOException {
+        if (count <= 0) {
+            return 0;
+        }
+        if (drained) {
+            count = 1;
+        }
+        Pipeline pipeline = client.pipeline();
+        List<PipelineResult<Job>> results = new ArrayList<PipelineResult<Job>>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(pipeline.reserve(0));
+        }
+        pipeline.sync();
+
+        List<Job> jobs = new ArrayList<Job>(count);
+        boolean timedOut = false;
+        for (PipelineResult<Job> result : results) {
+            Job job;
+            try {
+                job = result.get();
+            } catch (DeadlineSoonException e) {
+                continue;
+            }
+            if (job == null) {
+                timedOut = true;
+            } else {
+                jobs.add(job);
+            }
+        }
+        drained = timedOut || (drained && jobs.isEmpty());
+        dispatch(jobs);
+        return jobs.size();
+    }
+
+    /**
+     * Look up the jobs' reservations in one write and hand the jobs to the
+     * workers.
+     */
+    private void dispatch(List<Job> jobs) throws IOException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        long reservedAt = System.nanoTime();
+        Pipeline pipeline = client.pipeline();
+        List<PipelineResult<Map<String, String>>> results =
+            new ArrayList<PipelineResult<Map<String, String>>>(jobs.size());
+        for (Job job : jobs) {
+            results.add(pipeline.statsJob(job.getJobId()));
+        }
+        pipeline.sync();
+
+        for (int i = 0; i < jobs.size(); i++) {
+            Map<String, String> stats = results.get(i).get();
+            if (stats == null) {
+                // Gone already.
+                continue;
+            }
+            // The server rounds the time left down to whole seconds, so a
+            // job with a one-second TTR reports none at all.
+            long ttr = Commands.stat(stats, "ttr");
+            long timeLeft = Math.min(ttr, Commands.stat(stats, "time-left") + 1);
+            final WorkerJob workerJob = new WorkerJob(jobs.get(i), Commands.stat(stats, "pri"),
+                    (int) Commands.stat(stats, "releases"), (int) ttr, reservedAt + TimeUnit.SECONDS.toNanos(timeLeft),
+                    generation);
+            scheduleTouch(workerJob);
+            inFlight++;
+            workers.execute(() -> handle(workerJob));
+        }
+    }
+
+    /**
+     * Send the outcomes that workers have posted and the touches that have
+     * fallen due, in one write.
+     *
+     * @param first An outcome already taken off the queue, or null.
+     */
+    private void flush(Outcome first) throws IOException {
+        Pipeline pipeline = client.pipeline();
+        Outcome outcome = (first != null) ? first : outcomes.poll();
+        while (outcome != null) {
+            finish(outcome, pipeline);
+            outcome = outcomes.poll();
+        }
+
+        long now = System.nanoTime();
+        leases.expire(now, dueTouches);
+        List<PipelineResult<Boolean>> touched = new ArrayList<PipelineResult<Boolean>>(dueTouches.size());
+        for (WorkerJob job : dueTouches) {
+            touched.add(pipeline.touch(job.getJobId()));
+        }
+        pipeline.sync();
+
+        for (int i = 0; i < dueTouches.size(); i++) {
+            WorkerJob job = dueTouches.get(i);
+            boolean found;
+            try {
+                found = touched.get(i).get();
+            } catch (BeanstalkException e) {
+                found = false;
+            }
+            // A job that wasn't found has been lost already, so stop
+            // touching it.
+            if (found) {
+                job.setDeadlineNanos(now + TimeUnit.SECONDS.toNanos(job.ttrSeconds));
+                scheduleTouch(job);
+            }
+        }
+        dueTouches.clear();
+    }
+
+    private void scheduleTouch(WorkerJob job) {
+        long ttrNanos = TimeUnit.SECONDS.toNanos(job.ttrSeconds);
+        long lead = Math.max(ttrNanos/4, Math.min(LEASE_LEAD_NANOS, ttrNanos/2));
+        job.lease = leases.schedule(job, job.getDeadlineNanos() - lead);
+    }
+
+    private void finish(Outcome outcome, Pipeline pipeline) {
+        WorkerJob job = outcome.job;
+        if (job.generation != generation) {
+            return;
+        }
+        inFlight--;
+        leases.cancel(job.lease);
+        switch (outcome.action) {
+            case DELETE:
+                pipeline.delete(job.getJobId());
+                break;
+            case RELEASE:
+                pipeline.release(job.getJobId(), job.getPriority(), outcome.delaySeconds);
+                break;
+            case BURY:
+                pipeline.bury(job.getJobId(), job.getPriority());
+                break;
+            case DROP:
+            default:
+                break;
+        }
+    }
+
+    // ****************************************************************
+    // Worker threads
+    // ****************************************************************
+
+    private void handle(WorkerJob job) {
+        Outcome outcome = new Outcome(job, Action.DROP, 0);
+        try {
+            if (!running) {
+                outcome = new Outcome(job, Action.RELEASE, 0);
+            } else if (job.getTimeLeftMillis() > 0) {
+                try {
+                    handler.handle(job);
+                    outcome = new Outcome(job, Action.DELETE, 0);
+                } catch (Exception e) {
+                    outcome = retryPolicy.shouldBury(job.getReleases())
+                        ? new Outcome(job, Action.BURY, 0)
+                        : new Outcome(job, Action.RELEASE, retryPolicy.delaySeconds(job.getReleases()));
+                }
+            }
+            // Otherwise the reservation ran out while the job waited, and
+            // the server may already have handed it to someone else.
+        } finally {
+            outcomes.add(outcome);
+        }
+    }
+
+    private enum Action {
+        DELETE, RELEASE, BURY, DROP
+    }
+
+    /**
+     * What to do with a job once its handler is done.
+     */
+    private static final class Outcome {
+        final WorkerJob job;
+        final Action action;
+        final int delaySeconds;
+
+        Outcome(WorkerJob job, Action action, int delaySeconds) {
+            this.job = job;
+            this.action = action;
+            this.delaySeconds = delaySeconds;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+
+/**
+ * A base for compact binary codecs. The subclass writes its fields in a
+ * fixed order with a {@link BinaryWriter} and reads them back in the same
+ * order with a {@link BinaryReader}; no names or type descriptors are
+ * written, and numbers take as few bytes as their value needs.
+ */
+public abstract class BinaryCodec<T> implements PayloadCodec<T> {
+    private final Class<T> type;
+
+    protected BinaryCodec(Class<T> type) {
+        if (type == null) {
+            throw new NullPointerException("null type");
+        }
+        this.type = type;
+    }
+
+    @Override // PayloadCodec
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override // PayloadCodec
+    public byte[] encode(T value) throws IOException {
+        BinaryWriter out = new BinaryWriter();
+        write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override // PayloadCodec
+    public T decode(byte[] data) throws IOException {
+        BinaryReader in = new BinaryReader(data);
+        T value = read(in);
+        if (in.remaining() != 0) {
+            throw new IOException("trailing bytes in payload");
+        }
+        return value;
+    }
+
+    /**
+     * Write the value's fields.
+     */
+    protected abstract void write(T value, BinaryWriter out) throws IOException;
+
+    /**
+     * Read the fields written by {@link #write} and build the value.
+     */
+    protected abstract T read(BinaryReader in) throws IOException;
+}
@@ -0,0 +1,138 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes command lines straight into a connection's output buffer. Verbs
+ * are pre-encoded by {@link CommandType}, and numbers are written digit by
+ * digit, so sending a command builds no strings and allocates nothing.
+ */
+final class CommandEncoder {
+    /**
+     * Arguments of a command that has none.
+     */
+    static final long[] NO_ARGS = new long[0];
+    private static final byte SPACE = ' ';
+
+    private CommandEncoder() {
+        // Not instantiable.
+    }
+
+    /**
+     * Make sure a tube name can go on a command line as is: printable
+     * US-ASCII with no spaces.
+     *
+     * @throws NullPointerException if the name is null.
+     * @throws IllegalArgumentException if the name is empty or has other
+     * characters.
+     */
+    static String checkName(String name) {
+        if (name == null) {
+            throw new NullPointerException("null tubeName");
+        }
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("empty tubeName");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c > '~') {
+                throw new IllegalArgumentException("tubeName must be printable US-ASCII without spaces");
+            }
+        }
+        return name;
+    }
+
+    /**
+     * The number of bytes in the request's command line, not counting the
+     * \r\n.
+     */
+    static int length(Request request) {
+        int length = request.getCommandType().verb.length;
+        String name = request.getName();
+        if (name != null) {
+            length += 1 + name.length();
+        }
+        for (long arg : request.getArgs()) {
+            length += 1 + decimalLength(arg);
+        }
+        return length;
+    }
+
+    /**
+     * Write the request's command line, without the \r\n, at the buffer's
+     * position. The buffer must have {@link #length} bytes remaining.
+     */
+    static void encode(Request request, ByteBuffer buffer) {
+        buffer.put(request.getCommandType().verb);
+        String name = request.getName();
+        if (name != null) {
+            buffer.put(SPACE);
+            for (int i = 0; i < name.length(); i++) {
+                buffer.put((byte) name.charAt(i));
+            }
+        }
+        for (long arg : request.getArgs()) {
+            buffer.put(SPACE);
+            putDecimal(buffer, arg);
+        }
+    }
+
+    /**
+     * The number of characters in the decimal form of the value.
+     */
+    static int decimalLength(long value) {
+        int length = 1;
+        if (value < 0) {
+            // Counting on the negative side works for Long.MIN_VALUE too.
+            length++;
+        } else {
+            value = -value;
+        }
+        while (value <= -10) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Write the value in decimal at the buffer's position.
+     */
+    static void putDecimal(ByteBuffer buffer, long value) {
+        int length = decimalLength(value);
+        int start = buffer.position();
+        int index = start + length;
+        if (value < 0) {
+            buffer.put(start, (byte) '-');
+        } else {
+            value = -value;
+        }
+        do {
+            buffer.put(--index, (byte) ('0' - value % 10));
+            value /= 10;
+        } while (value != 0);
+        buffer.position(start + length);
+    }
+}
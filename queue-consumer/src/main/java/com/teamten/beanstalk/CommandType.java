@@ -0,0 +1,102 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One entry per protocol verb: its pre-encoded bytes, the statuses that
+ * count as success and as an expected failure, and what follows the
+ * response line. Any other status is reported as a {@link StatusException}.
+ */
+enum CommandType {
+    PUT("put", ExpectedResponse.None, ok(Status.INSERTED, Status.BURIED), error(Status.JOB_TOO_BIG)),
+    USE("use", ExpectedResponse.Name, ok(Status.USING), error()),
+    RESERVE("reserve", ExpectedResponse.ByteArray, ok(Status.RESERVED), error(Status.DEADLINE_SOON, Status.TIMED_OUT)),
+    RESERVE_WITH_TIMEOUT("reserve-with-timeout", ExpectedResponse.ByteArray,
+            ok(Status.RESERVED), error(Status.DEADLINE_SOON, Status.TIMED_OUT)),
+    DELETE("delete", ExpectedResponse.None, ok(Status.DELETED), error(Status.NOT_FOUND)),
+    RELEASE("release", ExpectedResponse.None, ok(Status.RELEASED), error(Status.NOT_FOUND, Status.BURIED)),
+    BURY("bury", ExpectedResponse.None, ok(Status.BURIED), error(Status.NOT_FOUND)),
+    TOUCH("touch", ExpectedResponse.None, ok(Status.TOUCHED), error(Status.NOT_FOUND)),
+    WATCH("watch", ExpectedResponse.None, ok(Status.WATCHING), error()),
+    IGNORE("ignore", ExpectedResponse.None, ok(Status.WATCHING, Status.NOT_IGNORED), error()),
+    PEEK("peek", ExpectedResponse.ByteArray, ok(Status.FOUND), error(Status.NOT_FOUND)),
+    PEEK_READY("peek-ready", ExpectedResponse.ByteArray, ok(Status.FOUND), error(Status.NOT_FOUND)),
+    PEEK_DELAYED("peek-delayed", ExpectedResponse.ByteArray, ok(Status.FOUND), error(Status.NOT_FOUND)),
+    PEEK_BURIED("peek-buried", ExpectedResponse.ByteArray, ok(Status.FOUND), error(Status.NOT_FOUND)),
+    KICK("kick", ExpectedResponse.None, ok(Status.KICKED), error()),
+    STATS_JOB("stats-job", ExpectedResponse.Map, ok(Status.OK), error(Status.NOT_FOUND)),
+    STATS_TUBE("stats-tube", ExpectedResponse.Map, ok(Status.OK), error(Status.NOT_FOUND)),
+    STATS("stats", ExpectedResponse.Map, ok(Status.OK), error()),
+    LIST_TUBES("list-tubes", ExpectedResponse.List, ok(Status.OK), error()),
+    LIST_TUBE_USED("list-tube-used", ExpectedResponse.Name, ok(Status.USING), error()),
+    LIST_TUBES_WATCHED("list-tubes-watched", ExpectedResponse.List, ok(Status.OK), error()),
+    PAUSE_TUBE("pause-tube", ExpectedResponse.None, ok(Status.PAUSED), error());
+
+    /**
+     * The verb as it goes on the wire.
+     */
+    final byte[] verb;
+    final ExpectedResponse expectedResponse;
+    private final long okMask;
+    private final long errorMask;
+
+    CommandType(String verb, ExpectedResponse expectedResponse, long okMask, long errorMask) {
+        this.verb = verb.getBytes(StandardCharsets.US_ASCII);
+        this.expectedResponse = expectedResponse;
+        this.okMask = okMask;
+        this.errorMask = errorMask;
+    }
+
+    private static long ok(Status... statuses) {
+        return mask(statuses);
+    }
+
+    private static long error(Status... statuses) {
+        return mask(statuses);
+    }
+
+    private static long mask(Status[] statuses) {
+        long mask = 0;
+        for (Status status : statuses) {
+            mask |= status.bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Whether the status means the command succeeded.
+     */
+    boolean isOk(Status status) {
+        return (okMask & status.bit) != 0;
+    }
+
+    /**
+     * Whether the status is an expected failure, such as NOT_FOUND, that
+     * the caller gets as a result rather than an exception.
+     */
+    boolean isError(Status status) {
+        return (errorMask & status.bit) != 0;
+    }
+}
@@ -0,0 +1,387 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A consumer connection served by a {@link BeanstalkEventLoop}. It holds a
+ * reserve open on the server while idle, hands each reserved job to its
+ * {@link ReservedJobHandler}, and reserves again once the handler has
+ * deleted, released or buried the job.
+ *
+ * <p>The public methods are thread-safe and don't block: the command is
+ * sent by the loop thread and the returned future completes there.</p>
+ */
+public class EventLoopConnection {
+    /**
+     * Priority that jobs are released with when their handler throws.
+     */
+    public static final long RELEASE_PRIORITY = 1024;
+
+    private final BeanstalkEventLoop.IoThread ioThread;
+    private final String host;
+    private final int port;
+    private final BeanstalkClientOptions options;
+    private final List<String> tubes;
+    private final ReservedJobHandler handler;
+    private final Executor workers;
+    private final CompletableFuture<Void> closeFuture = new CompletableFuture<Void>();
+
+    // Only touched by the loop thread.
+    private SocketChannel channel;
+    private SelectionKey key;
+    private EventLoopTransport transport;
+    private ProtocolHandler protocolHandler;
+    private final ArrayDeque<PendingRequest<?>> inFlight = new ArrayDeque<PendingRequest<?>>();
+    /**
+     * The job handed to the handler and not yet finished, or -1.
+     */
+    private long currentJobId = -1;
+    private boolean closed;
+    /**
+     * When the connect times out, by System.nanoTime(), while it's listed
+     * in the loop thread's connecting connections.
+     */
+    long connectDeadline;
+
+    EventLoopConnection(BeanstalkEventLoop.IoThread ioThread, String host, int port, BeanstalkClientOptions options,
+                        List<String> tubes, ReservedJobHandler handler, Executor workers) {
+        this.ioThread = ioThread;
+        this.host = host;
+        this.port = port;
+        this.options = options;
+        this.tubes = tubes;
+        this.handler = handler;
+        this.workers = workers;
+    }
+
+    /**
+     * Delete a job reserved through this connection.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> delete(long jobId) {
+        return submit(Commands.delete(jobId), jobId);
+    }
+
+    /**
+     * Release a job reserved through this connection.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> release(long jobId, long priority, int delaySeconds) {
+        return submit(Commands.release(jobId, priority, delaySeconds), jobId);
+    }
+
+    /**
+     * Bury a job reserved through this connection.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> bury(long jobId, long priority) {
+        return submit(Commands.bury(jobId, priority), jobId);
+    }
+
+    /**
+     * Touch a job reserved through this connection.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> touch(long jobId) {
+        return submit(Commands.touch(jobId), -1);
+    }
+
+    /**
+     * A future that completes when the connection closes: normally after
+     * {@link #close()}, exceptionally if it failed.
+     */
+    public CompletableFuture<Void> closeFuture() {
+        return closeFuture;
+    }
+
+    /**
+     * Close the connection. A job being handled is returned to the server
+     * when its reservation ends with the connection.
+     */
+    public void close() {
+        // If the loop has stopped, it has closed us already.
+        ioThread.execute(new Runnable() {
+            public void run() {
+                closeNow(null);
+            }
+        });
+    }
+
+    /**
+     * Queue a command for the loop thread.
+     *
+     * @param finishedJobId The job this command finishes, or -1.
+     */
+    private CompletableFuture<Boolean> submit(Request request, final long finishedJobId) {
+        final PendingRequest<Boolean> pending = new PendingRequest<Boolean>(request, Commands::ok);
+        boolean queued = ioThread.execute(new Runnable() {
+            public void run() {
+                List<PendingRequest<?>> requests = new ArrayList<PendingRequest<?>>(2);
+                requests.add(pending);
+                if (finishedJobId != -1 && finishedJobId == currentJobId) {
+                    currentJobId = -1;
+                    requests.add(reserveRequest());
+                }
+                send(requests);
+            }
+        });
+        if (!queued) {
+            pending.fail(new BeanstalkException("event loop closed"));
+        }
+        return pending.future;
+    }
+
+    // ****************************************************************
+    // Loop thread
+    // ****************************************************************
+
+    /**
+     * Start connecting.
+     */
+    void register() {
+        if (!ioThread.running) {
+            closeNow(new BeanstalkException("event loop closed"));
+            return;
+        }
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, options.isTcpNoDelay());
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, options.isKeepAlive());
+            if (options.getSendBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, options.getSendBufferSize());
+            }
+            if (options.getReceiveBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, options.getReceiveBufferSize());
+            }
+            key = channel.register(ioThread.selector, SelectionKey.OP_CONNECT, this);
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                onConnected();
+            } else if (options.getConnectTimeoutMillis() > 0) {
+                connectDeadline = System.nanoTime() + options.getConnectTimeoutMillis()*1000000L;
+                ioThread.connecting.add(this);
+            }
+        } catch (IOException e) {
+            closeNow(e);
+        }
+    }
+
+    /**
+     * Called by the loop when the key is selected.
+     */
+    void onSelected(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                onConnected();
+            }
+            if (key.isValid() && key.isWritable()) {
+                transport.flushOutbound();
+            }
+            if (key.isValid() && key.isReadable()) {
+                onReadable();
+            }
+        } catch (IOException e) {
+            closeNow(e);
+        } catch (CancelledKeyException e) {
+            closeNow(null);
+        }
+    }
+
+    /**
+     * Called by the loop when the connect deadline has passed.
+     */
+    void onConnectTimeout() {
+        closeNow(new SocketTimeoutException("connect timed out"));
+    }
+
+    private void onConnected() {
+        ioThread.connecting.remove(this);
+        transport = new EventLoopTransport(channel, key);
+        protocolHandler = new ProtocolHandler(transport);
+        key.interestOps(0);
+
+        List<PendingRequest<?>> requests = new ArrayList<PendingRequest<?>>();
+        for (String tube : tubes) {
+            requests.add(setupRequest(Commands.watch(tube)));
+        }
+        if (!tubes.contains(Commands.DEFAULT_TUBE)) {
+            requests.add(setupRequest(Commands.ignore(Commands.DEFAULT_TUBE)));
+        }
+        requests.add(reserveRequest());
+        send(requests);
+    }
+
+    /**
+     * A watch or ignore whose failure closes the connection.
+     */
+    private PendingRequest<Response> setupRequest(Request request) {
+        PendingRequest<Response> pending = new PendingRequest<Response>(request, response -> response);
+        pending.future.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                closeNow(throwable);
+            }
+        });
+        return pending;
+    }
+
+    private PendingRequest<Job> reserveRequest() {
+        PendingRequest<Job> pending = new PendingRequest<Job>(Commands.reserve(null), Commands::reserved);
+        pending.future.whenComplete((job, throwable) -> onReserved(job));
+        return pending;
+    }
+
+    private void onReserved(final Job job) {
+        if (closed) {
+            return;
+        }
+        if (job == null) {
+            // DEADLINE_SOON or an unexpected status. We hold no job, so just
+            // try again.
+            send(reserveRequest());
+            return;
+        }
+
+        currentJobId = job.getJobId();
+        try {
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        handler.onReserved(EventLoopConnection.this, job);
+                    } catch (RuntimeException e) {
+                        release(job.getJobId(), RELEASE_PRIORITY, 0);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(job.getJobId(), RELEASE_PRIORITY, 0);
+        }
+    }
+
+    private void send(PendingRequest<?> pending) {
+        List<PendingRequest<?>> requests = new ArrayList<PendingRequest<?>>(1);
+        requests.add(pending);
+        send(requests);
+    }
+
+    private void send(List<PendingRequest<?>> pending) {
+        if (closed || protocolHandler == null) {
+            String message = closed ? "connection closed" : "not connected";
+            for (PendingRequest<?> p : pending) {
+                p.fail(new BeanstalkException(message));
+            }
+            return;
+        }
+
+        List<Request> requests = new ArrayList<Request>(pending.size());
+        for (PendingRequest<?> p : pending) {
+            requests.add(p.request);
+        }
+        inFlight.addAll(pending);
+        try {
+            protocolHandler.sendRequests(requests);
+        } catch (IOException e) {
+            closeNow(e);
+            return;
+        }
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    private void onReadable() throws IOException {
+        while (!inFlight.isEmpty() && !closed) {
+            PendingRequest<?> pending = inFlight.peek();
+            Response response;
+            try {
+                response = protocolHandler.pollResponse(pending.request);
+            } catch (StatusException e) {
+                inFlight.poll();
+                pending.fail(e);
+                continue;
+            }
+            if (response == null) {
+                return;
+            }
+            inFlight.poll();
+            pending.complete(response);
+        }
+        if (!closed && inFlight.isEmpty()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Close the channel and fail everything in flight.
+     *
+     * @param cause Why, or null if closed on purpose.
+     */
+    void closeNow(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ioThread.connecting.remove(this);
+        if (transport != null) {
+            transport.close();
+        } else if (channel != null) {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Swallow exception closing the channel.
+            }
+        }
+
+        // Each command gets its own exception, so that callers don't share
+        // a Throwable.
+        String message = (cause != null) ? "connection failed: " + cause.getMessage() : "connection closed";
+        PendingRequest<?> pending;
+        while ((pending = inFlight.poll()) != null) {
+            pending.fail(new BeanstalkException(message, cause));
+        }
+        if (cause != null) {
+            closeFuture.completeExceptionally(cause);
+        } else {
+            closeFuture.complete(null);
+        }
+    }
+}
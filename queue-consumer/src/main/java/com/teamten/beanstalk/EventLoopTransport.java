@@ -0,0 +1,112 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking transport for a channel owned by a {@link BeanstalkEventLoop}.
+ * Reads return 0 instead of blocking. Writes never block either: what the
+ * socket doesn't take right away is kept in an outbound buffer and sent when
+ * the selector reports the channel writable. Only the loop's thread may use
+ * it.
+ */
+class EventLoopTransport implements Transport {
+    private static final int INITIAL_OUTBOUND_SIZE = 16*1024;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    /**
+     * Bytes waiting to be written, in write mode.
+     */
+    private ByteBuffer outbound = ByteBuffer.allocateDirect(INITIAL_OUTBOUND_SIZE);
+
+    EventLoopTransport(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    @Override // Transport
+    public ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override // Transport
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    @Override // Transport
+    public void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if(outbound.position() == 0) {
+            channel.write(srcs, offset, length);
+        }
+
+        for(int i = offset; i < offset + length; i++) {
+            ByteBuffer src = srcs[i];
+            if(src.hasRemaining()) {
+                if(outbound.remaining() < src.remaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(outbound.capacity()*2, outbound.position() + src.remaining()));
+                    outbound.flip();
+                    bigger.put(outbound);
+                    outbound = bigger;
+                }
+                outbound.put(src);
+            }
+        }
+
+        if(outbound.position() > 0) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Write out as much of the outbound buffer as the socket will take. Called
+     * when the channel is writable.
+     */
+    void flushOutbound() throws IOException {
+        outbound.flip();
+        channel.write(outbound);
+        outbound.compact();
+        if(outbound.position() == 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    @Override // Transport
+    public void setReadTimeout(int timeoutMs) {
+        // The loop never blocks on a read.
+    }
+
+    @Override // Transport
+    public void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch(Exception e) {
+            // Swallow exception closing the channel.
+        }
+    }
+}
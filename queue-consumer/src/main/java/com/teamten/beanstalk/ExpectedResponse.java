@@ -44,7 +44,12 @@ enum ExpectedResponse {
     /**
      * The command contains a YAML document with a map from string to string.
      */
-    Map(3);
+    Map(3),
+
+    /**
+     * The response line ends with a tube name rather than a number.
+     */
+    Name(4);
 
     private int id = 0;
 
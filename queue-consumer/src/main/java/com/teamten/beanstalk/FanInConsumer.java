@@ -0,0 +1,221 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the jobs of several servers into one local stream. Every
+ * connection holds a reserve open on its server through a
+ * {@link BeanstalkEventLoop}, so no thread blocks per server, and a job is
+ * taken from whichever server has one first.
+ *
+ * <p>Each connection reserves its next job only once the last one has been
+ * deleted, released or buried, so a server with a deep backlog gets no more
+ * than its connections' share and can't starve the others. Jobs come out as
+ * {@link ServerJob}s, which send those commands back to the server that owns
+ * them.</p>
+ *
+ * <p>A connection that fails is replaced after a backoff taken from the
+ * options' reconnect delays. Jobs it had reserved go back to their server,
+ * and finishing them reports that they weren't found.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class FanInConsumer {
+    private final BeanstalkEventLoop loop;
+    private final List<String> tubes;
+    private final int connectionsPerServer;
+    private final BeanstalkClientOptions options;
+    private final BlockingQueue<ServerJob> jobs = new LinkedBlockingQueue<ServerJob>();
+    private final List<Slot> slots = new ArrayList<Slot>();
+    private final ScheduledExecutorService reconnector;
+    private volatile boolean closed;
+
+    /**
+     * Create a consumer with one connection per server and the default
+     * options.
+     *
+     * @param tubes The tubes to watch on every server. The default tube is
+     * ignored unless it's in the list.
+     *
+     * @throws IOException if the event loop could not be started.
+     */
+    public FanInConsumer(Collection<String> tubes) throws IOException {
+        this(tubes, 1, new BeanstalkClientOptions());
+    }
+
+    /**
+     * Create a consumer with no servers.
+     *
+     * @param tubes The tubes to watch on every server. The default tube is
+     * ignored unless it's in the list.
+     * @param connectionsPerServer How many jobs may be reserved from each
+     * server at once.
+     * @param options The connect timeout, TCP settings and reconnect delays
+     * of the connections.
+     *
+     * @throws IOException if the event loop could not be started.
+     */
+    public FanInConsumer(Collection<String> tubes, int connectionsPerServer, BeanstalkClientOptions options)
+        throws IOException {
+
+        if (tubes.isEmpty()) {
+            throw new IllegalArgumentException("no tubes");
+        }
+        if (connectionsPerServer <= 0) {
+            throw new IllegalArgumentException("invalid connectionsPerServer");
+        }
+        this.tubes = new ArrayList<String>(tubes);
+        this.connectionsPerServer = connectionsPerServer;
+        this.options = new BeanstalkClientOptions(options);
+        // Reserved jobs are only queued here, so the loop thread can hand
+        // them over itself.
+        loop = new BeanstalkEventLoop(1, Runnable::run);
+        reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "beanstalk-fan-in-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start consuming from a server.
+     */
+    public void addServer(String host, int port) throws IOException {
+        synchronized (slots) {
+            if (closed) {
+                throw new IllegalStateException("consumer closed");
+            }
+            for (int i = 0; i < connectionsPerServer; i++) {
+                Slot slot = new Slot(host, port);
+                slots.add(slot);
+                slot.connect();
+            }
+        }
+    }
+
+    /**
+     * Wait for the next job from any server.
+     */
+    public ServerJob take() throws InterruptedException {
+        return jobs.take();
+    }
+
+    /**
+     * Wait up to the timeout for the next job from any server.
+     *
+     * @return the job, or null if none came in time.
+     */
+    public ServerJob poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return jobs.poll(timeout, unit);
+    }
+
+    /**
+     * Close every connection. Jobs not yet finished go back to their
+     * servers when their reservations end with the connections.
+     */
+    public void close() {
+        synchronized (slots) {
+            closed = true;
+            for (Slot slot : slots) {
+                slot.close();
+            }
+        }
+        reconnector.shutdownNow();
+        loop.close();
+        jobs.clear();
+    }
+
+    /**
+     * One connection to a server, replaced when it fails.
+     */
+    private final class Slot implements ReservedJobHandler {
+        private final String host;
+        private final int port;
+        private final String server;
+        private volatile EventLoopConnection connection;
+        private final Backoff backoff = new Backoff(options);
+
+        Slot(String host, int port) {
+            this.host = host;
+            this.port = port;
+            server = host + ":" + port;
+        }
+
+        void connect() throws IOException {
+            EventLoopConnection connection = loop.connect(host, port, options, tubes, this);
+            this.connection = connection;
+            connection.closeFuture().whenComplete((v, throwable) -> {
+                if (throwable != null) {
+                    onFailed();
+                }
+            });
+        }
+
+        @Override // ReservedJobHandler
+        public void onReserved(EventLoopConnection connection, Job job) {
+            backoff.reset();
+            jobs.add(new ServerJob(connection, server, job));
+        }
+
+        private void onFailed() {
+            if (closed) {
+                return;
+            }
+            try {
+                reconnector.schedule(this::reconnect, backoff.nextDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // Closed meanwhile.
+            }
+        }
+
+        private void reconnect() {
+            synchronized (slots) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    connect();
+                } catch (IOException | RuntimeException e) {
+                    onFailed();
+                }
+            }
+        }
+
+        void close() {
+            EventLoopConnection connection = this.connection;
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
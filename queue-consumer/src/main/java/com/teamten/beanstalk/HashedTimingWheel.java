@@ -0,0 +1,158 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel: timers are hashed by their deadline tick into a
+ * ring of buckets, so scheduling and cancelling are O(1), and each tick
+ * only looks at one bucket. A timer more than a turn of the wheel away
+ * waits in its bucket for the remaining turns.
+ *
+ * <p>This class is not thread-safe; the thread that owns it advances it.</p>
+ */
+final class HashedTimingWheel<T> {
+    private final long tickNanos;
+    private final Timer<T>[] buckets;
+    private final int mask;
+    private final long startNanos;
+    /**
+     * The next tick to process.
+     */
+    private long tick;
+    private int size;
+
+    /**
+     * @param tickMillis The resolution of the timers.
+     * @param wheelSize The number of buckets, which must be a power of two.
+     * @param nowNanos The current {@link System#nanoTime()}.
+     */
+    @SuppressWarnings("unchecked")
+    HashedTimingWheel(long tickMillis, int wheelSize, long nowNanos) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("invalid tick");
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("wheel size must be a power of two");
+        }
+        tickNanos = tickMillis*1000000L;
+        buckets = (Timer<T>[]) new Timer<?>[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            // Each bucket is a circular list with a sentinel head.
+            Timer<T> head = new Timer<T>(null);
+            head.prev = head;
+            head.next = head;
+            buckets[i] = head;
+        }
+        mask = wheelSize - 1;
+        startNanos = nowNanos;
+    }
+
+    /**
+     * Schedule a timer to expire at or after the deadline.
+     *
+     * @return the timer, for {@link #cancel}.
+     */
+    Timer<T> schedule(T value, long deadlineNanos) {
+        long ticks = Math.max(tick, ceilDiv(deadlineNanos - startNanos, tickNanos));
+        Timer<T> timer = new Timer<T>(value);
+        timer.rounds = (ticks - tick) / buckets.length;
+        Timer<T> head = buckets[(int) (ticks & mask)];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+        size++;
+        return timer;
+    }
+
+    /**
+     * Cancel a timer that hasn't expired. Does nothing if it has, or was
+     * already cancelled.
+     */
+    void cancel(Timer<T> timer) {
+        if (timer.next != null) {
+            unlink(timer);
+        }
+    }
+
+    /**
+     * Process the ticks up to now, adding the values of the timers that
+     * expired to the list.
+     */
+    void expire(long nowNanos, List<T> expired) {
+        while (nowNanos - (startNanos + tick*tickNanos) >= 0) {
+            Timer<T> head = buckets[(int) (tick & mask)];
+            Timer<T> timer = head.next;
+            while (timer != head) {
+                Timer<T> next = timer.next;
+                if (timer.rounds == 0) {
+                    unlink(timer);
+                    expired.add(timer.value);
+                } else {
+                    timer.rounds--;
+                }
+                timer = next;
+            }
+            tick++;
+            if (size == 0) {
+                // Nothing to find in the buckets in between.
+                tick = Math.max(tick, (nowNanos - startNanos)/tickNanos + 1);
+            }
+        }
+    }
+
+    /**
+     * The number of timers scheduled.
+     */
+    int size() {
+        return size;
+    }
+
+    private void unlink(Timer<T> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        size--;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return a <= 0 ? 0 : (a + b - 1)/b;
+    }
+
+    /**
+     * A scheduled value.
+     */
+    static final class Timer<T> {
+        final T value;
+        long rounds;
+        Timer<T> prev;
+        Timer<T> next;
+
+        Timer(T value) {
+            this.value = value;
+        }
+    }
+}
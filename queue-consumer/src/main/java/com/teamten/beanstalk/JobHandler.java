@@ -0,0 +1,38 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * Processes the jobs reserved by a {@link BeanstalkConsumerRuntime}.
+ */
+public interface JobHandler {
+    /**
+     * Process a reserved job. Called on the consumer thread that reserved
+     * it, which may block here for as long as the job's time-to-run allows.
+     * The job is deleted when this returns, and released so it can be
+     * retried when this throws.
+     *
+     * @param job The job.
+     */
+    public void handle(Job job) throws Exception;
+}
@@ -0,0 +1,73 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+
+/**
+ * A base for JSON codecs that don't use reflection. The subclass writes its
+ * fields by name with a {@link JsonWriter} and reads them back with a
+ * {@link JsonReader}, skipping names it doesn't know, so producers and
+ * consumers can add fields independently. Larger than {@link BinaryCodec}
+ * but readable by other languages and by people peeking at the tube.
+ */
+public abstract class JsonCodec<T> implements PayloadCodec<T> {
+    private final Class<T> type;
+
+    protected JsonCodec(Class<T> type) {
+        if (type == null) {
+            throw new NullPointerException("null type");
+        }
+        this.type = type;
+    }
+
+    @Override // PayloadCodec
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override // PayloadCodec
+    public byte[] encode(T value) throws IOException {
+        JsonWriter out = new JsonWriter();
+        write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override // PayloadCodec
+    public T decode(byte[] data) throws IOException {
+        JsonReader in = new JsonReader(data);
+        T value = read(in);
+        in.end();
+        return value;
+    }
+
+    /**
+     * Write the value, usually as one object.
+     */
+    protected abstract void write(T value, JsonWriter out) throws IOException;
+
+    /**
+     * Read the value written by {@link #write}.
+     */
+    protected abstract T read(JsonReader in) throws IOException;
+}
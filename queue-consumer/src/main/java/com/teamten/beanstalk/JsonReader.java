@@ -0,0 +1,344 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls JSON tokens for a {@link JsonCodec}. A typical object is read as:
+ *
+ * <pre>
+ * in.beginObject();
+ * while (in.hasNext()) {
+ *     String name = in.nextName();
+ *     if (name.equals("id")) {
+ *         id = in.nextLong();
+ *     } else {
+ *         in.skipValue();
+ *     }
+ * }
+ * in.endObject();
+ * </pre>
+ */
+public final class JsonReader {
+    /**
+     * How deeply objects and arrays may nest, so that a hostile payload
+     * can't overflow the stack in {@link #skipValue()}.
+     */
+    private static final int MAX_DEPTH = 64;
+    private final String text;
+    private int position;
+    /**
+     * Whether each open object or array has had a member or element, and
+     * so needs a comma before the next.
+     */
+    private final boolean[] started = new boolean[MAX_DEPTH];
+    private int depth;
+    /**
+     * Where {@link #hasNext()} last found a member or element, so that
+     * calling it again before reading it doesn't look for another comma.
+     */
+    private int nextAt = -1;
+
+    JsonReader(byte[] data) {
+        this.text = new String(data, StandardCharsets.UTF_8);
+    }
+
+    public void beginObject() throws IOException {
+        open('{');
+    }
+
+    public void endObject() throws IOException {
+        close('}');
+    }
+
+    public void beginArray() throws IOException {
+        open('[');
+    }
+
+    public void endArray() throws IOException {
+        close(']');
+    }
+
+    /**
+     * Whether the current object or array has another member or element.
+     * Consumes the comma before it, which every member or element but the
+     * first must have.
+     */
+    public boolean hasNext() throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("not in an object or array");
+        }
+        char c = peek();
+        if (position == nextAt) {
+            return true;
+        }
+        if (c == '}' || c == ']') {
+            return false;
+        }
+        if (started[depth - 1]) {
+            if (c != ',') {
+                throw syntax("expected ','");
+            }
+            position++;
+            peek();
+        } else if (c == ',') {
+            throw syntax("unexpected ','");
+        }
+        started[depth - 1] = true;
+        nextAt = position;
+        return true;
+    }
+
+    public String nextName() throws IOException {
+        if (peek() != '"') {
+            throw syntax("expected name");
+        }
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * The next string, or null for a JSON null.
+     */
+    public String nextString() throws IOException {
+        if (consumeLiteral("null")) {
+            return null;
+        }
+        if (peek() != '"') {
+            throw syntax("expected string");
+        }
+        return readString();
+    }
+
+    public long nextLong() throws IOException {
+        String number = readNumber();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw syntax("expected integer");
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntax("int out of range");
+        }
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException {
+        String number = readNumber();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw syntax("expected number");
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        if (consumeLiteral("true")) {
+            return true;
+        }
+        if (consumeLiteral("false")) {
+            return false;
+        }
+        throw syntax("expected boolean");
+    }
+
+    /**
+     * Whether the next value is null. Consumes it if it is.
+     */
+    public boolean nextNull() throws IOException {
+        return consumeLiteral("null");
+    }
+
+    /**
+     * Skip the next value, including any nested objects and arrays.
+     */
+    public void skipValue() throws IOException {
+        char c = peek();
+        if (c == '{' || c == '[') {
+            open(c);
+            while (hasNext()) {
+                if (c == '{') {
+                    nextName();
+                }
+                skipValue();
+            }
+            close(c == '{' ? '}' : ']');
+        } else if (c == '"') {
+            readString();
+        } else if (!consumeLiteral("null") && !consumeLiteral("true") && !consumeLiteral("false")) {
+            readNumber();
+        }
+    }
+
+    /**
+     * Check that nothing but whitespace follows the value.
+     */
+    void end() throws IOException {
+        skipWhitespace();
+        if (position != text.length()) {
+            throw syntax("trailing characters");
+        }
+    }
+
+    private void open(char c) throws IOException {
+        expect(c);
+        if (depth == MAX_DEPTH) {
+            throw syntax("JSON nested too deeply");
+        }
+        started[depth++] = false;
+    }
+
+    private void close(char c) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("not in an object or array");
+        }
+        expect(c);
+        depth--;
+    }
+
+    private String readString() throws IOException {
+        position++;
+        StringBuilder sb = null;
+        int start = position;
+        while (true) {
+            if (position >= text.length()) {
+                throw new EOFException("unterminated JSON string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                if (sb == null) {
+                    return text.substring(start, position - 1);
+                }
+                return sb.append(text, start, position - 1).toString();
+            }
+            if (c == '\\') {
+                if (sb == null) {
+                    sb = new StringBuilder();
+                }
+                sb.append(text, start, position - 1);
+                sb.append(readEscape());
+                start = position;
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (position >= text.length()) {
+            throw new EOFException("unterminated JSON string");
+        }
+        char c = text.charAt(position++);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+
+            case 'b':
+                return '\b';
+
+            case 'f':
+                return '\f';
+
+            case 'n':
+                return '\n';
+
+            case 'r':
+                return '\r';
+
+            case 't':
+                return '\t';
+
+            case 'u':
+                if (position + 4 > text.length()) {
+                    throw new EOFException("unterminated JSON string");
+                }
+                try {
+                    char u = (char) Integer.parseInt(text.substring(position, position + 4), 16);
+                    position += 4;
+                    return u;
+                } catch (NumberFormatException e) {
+                    throw syntax("bad unicode escape");
+                }
+
+            default:
+                throw syntax("bad escape");
+        }
+    }
+
+    private String readNumber() throws IOException {
+        skipWhitespace();
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw syntax("expected number");
+        }
+        return text.substring(start, position);
+    }
+
+    private boolean consumeLiteral(String literal) throws IOException {
+        skipWhitespace();
+        if (text.startsWith(literal, position)) {
+            position += literal.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peek() != expected) {
+            throw syntax("expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    /**
+     * The next non-whitespace character, without consuming it.
+     */
+    private char peek() throws IOException {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw new EOFException("truncated JSON payload");
+        }
+        return text.charAt(position);
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IOException syntax(String message) {
+        return new IOException(message + " at offset " + position + " of JSON payload");
+    }
+}
@@ -0,0 +1,54 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+
+/**
+ * Turns values of one type into job data and back. Codecs are registered
+ * with {@link PayloadCodecs}, either by hand or as a service listed in
+ * {@code META-INF/services/com.teamten.beanstalk.PayloadCodec}, and are
+ * then used by {@link BeanstalkClient#putPayload} and
+ * {@link Job#getPayload}.
+ *
+ * <p>{@link BinaryCodec} and {@link JsonCodec} are bases for codecs written
+ * by hand. Implementations must be thread-safe.</p>
+ */
+public interface PayloadCodec<T> {
+    /**
+     * The type this codec handles.
+     */
+    public Class<T> getType();
+
+    /**
+     * Encode a value into job data.
+     */
+    public byte[] encode(T value) throws IOException;
+
+    /**
+     * Decode job data into a value.
+     *
+     * @throws IOException if the data is malformed.
+     */
+    public T decode(byte[] data) throws IOException;
+}
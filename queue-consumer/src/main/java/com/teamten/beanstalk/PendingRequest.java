@@ -0,0 +1,68 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A request that has been sent, or is about to be, and the future waiting
+ * for its response.
+ */
+class PendingRequest<T> {
+    final Request request;
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    private final ResponseDecoder<T> decoder;
+
+    PendingRequest(Request request, ResponseDecoder<T> decoder) {
+        this.request = request;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Decode the response and complete the future with it.
+     */
+    void complete(Response response) {
+        T value;
+        try {
+            value = decoder.decode(response);
+        } catch (BeanstalkException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        future.complete(value);
+    }
+
+    void fail(Throwable cause) {
+        future.completeExceptionally(cause);
+    }
+
+    /**
+     * Fail because the client failed. Each request gets its own exception,
+     * caused by the client's failure, so that callers don't share a
+     * Throwable.
+     */
+    void abort(IOException cause) {
+        fail(new BeanstalkException("client failed: " + cause.getMessage(), cause));
+    }
+}
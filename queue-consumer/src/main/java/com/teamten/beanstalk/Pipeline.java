@@ -0,0 +1,239 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues commands to be sent to the server together. Nothing is sent until
+ * {@link #sync()}, which writes every queued command at once and then reads
+ * all the responses, so a batch costs one network round trip instead of one
+ * per command.
+ *
+ * <p>Each queueing method returns a {@link PipelineResult} that holds the
+ * command's result once the pipeline has been synced. A protocol error on
+ * one command, such as JOB_TOO_BIG, is reported through that command's
+ * result and doesn't affect the others.</p>
+ *
+ * <p>A pipeline can be reused after syncing. Like the client it came from,
+ * it is not thread-safe.</p>
+ */
+public class Pipeline {
+    private final Sender sender;
+    private final List<Request> requests = new ArrayList<Request>();
+    private final List<PipelineResult<?>> results = new ArrayList<PipelineResult<?>>();
+
+    /**
+     * Sends a pipeline's commands and completes their results in order.
+     */
+    interface Sender {
+        /**
+         * @throws IOException on network error, after failing the results
+         * not yet completed with {@link #abort}.
+         */
+        void send(List<Request> requests, List<PipelineResult<?>> results) throws IOException;
+    }
+
+    /**
+     * A pipeline that writes and reads on the calling thread.
+     */
+    Pipeline(final ProtocolHandler protocolHandler) {
+        this(new Sender() {
+            @Override // Sender
+            public void send(List<Request> requests, List<PipelineResult<?>> results) throws IOException {
+                sendAndRead(protocolHandler, requests, results);
+            }
+        });
+    }
+
+    Pipeline(Sender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Queue a put. See {@link BeanstalkClient#put}.
+     */
+    public PipelineResult<Long> put(long priority, int delaySeconds, int timeToRun, byte[] data) {
+        return add(Commands.put(priority, delaySeconds, timeToRun, data), Commands::jobId);
+    }
+
+    /**
+     * Queue a use. See {@link BeanstalkClient#useTube}.
+     */
+    public PipelineResult<String> useTube(String tubeName) {
+        return add(Commands.useTube(tubeName), Commands::tube);
+    }
+
+    /**
+     * Queue a reserve. See {@link BeanstalkClient#reserve}. Commands queued
+     * after a reserve are not processed by the server until it returns.
+     */
+    public PipelineResult<Job> reserve(Integer timeoutSeconds) {
+        return add(Commands.reserve(timeoutSeconds), Commands::reserved);
+    }
+
+    /**
+     * Queue a delete. See {@link BeanstalkClient#delete}.
+     */
+    public PipelineResult<Boolean> delete(long jobId) {
+        return add(Commands.delete(jobId), Commands::ok);
+    }
+
+    /**
+     * Queue a release. See {@link BeanstalkClient#release}.
+     */
+    public PipelineResult<Boolean> release(long jobId, long priority, int delaySeconds) {
+        return add(Commands.release(jobId, priority, delaySeconds), Commands::ok);
+    }
+
+    /**
+     * Queue a bury. See {@link BeanstalkClient#bury}.
+     */
+    public PipelineResult<Boolean> bury(long jobId, long priority) {
+        return add(Commands.bury(jobId, priority), Commands::ok);
+    }
+
+    /**
+     * Queue a touch. See {@link BeanstalkClient#touch}.
+     */
+    public PipelineResult<Boolean> touch(long jobId) {
+        return add(Commands.touch(jobId), Commands::ok);
+    }
+
+    /**
+     * Queue a watch. See {@link BeanstalkClient#watch}.
+     */
+    public PipelineResult<Integer> watch(String tubeName) {
+        return add(Commands.watch(tubeName), Commands::watching);
+    }
+
+    /**
+     * Queue an ignore. See {@link BeanstalkClient#ignore}.
+     */
+    public PipelineResult<Integer> ignore(String tubeName) {
+        return add(Commands.ignore(tubeName), Commands::ignored);
+    }
+
+    /**
+     * Queue a kick. See {@link BeanstalkClient#kick}.
+     */
+    public PipelineResult<Integer> kick(final int count) {
+        return add(Commands.kick(count), response -> Commands.kicked(response, count));
+    }
+
+    /**
+     * Queue a stats-job. See {@link BeanstalkClient#statsJob}.
+     */
+    public PipelineResult<Map<String, String>> statsJob(long jobId) {
+        return add(Commands.statsJob(jobId), Commands::map);
+    }
+
+    /**
+     * Queue a stats-tube. See {@link BeanstalkClient#statsTube}.
+     */
+    public PipelineResult<Map<String, String>> statsTube(String tubeName) {
+        if (tubeName == null) {
+            throw new NullPointerException("null tubeName");
+        }
+        return add(Commands.statsTube(tubeName), Commands::map);
+    }
+
+    /**
+     * Queue a stats. See {@link BeanstalkClient#stats}.
+     */
+    public PipelineResult<Map<String, String>> stats() {
+        return add(Commands.stats(), Commands::map);
+    }
+
+    /**
+     * The number of commands queued since the last sync.
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * Send all queued commands and read their responses, completing their
+     * results. The pipeline is empty afterwards.
+     *
+     * @throws IOException on network error, in which case the results of the
+     * commands whose responses weren't read fail with a BeanstalkException.
+     * The connection should then be considered broken.
+     */
+    public void sync() throws IOException {
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        try {
+            sender.send(requests, results);
+        } finally {
+            requests.clear();
+            results.clear();
+        }
+    }
+
+    private static void sendAndRead(ProtocolHandler protocolHandler, List<Request> requests,
+            List<PipelineResult<?>> results) throws IOException {
+
+        int read = 0;
+        try {
+            protocolHandler.sendRequests(requests);
+            for (; read < requests.size(); read++) {
+                Response response;
+                try {
+                    response = protocolHandler.readResponse(requests.get(read));
+                } catch (StatusException e) {
+                    // Unexpected status. It has no body, so the next
+                    // response is still intact.
+                    results.get(read).fail(e);
+                    continue;
+                }
+                results.get(read).complete(response);
+            }
+        } catch (IOException e) {
+            abort(results, read, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Fail the results from the given index on, because of a network error.
+     * Each gets its own exception, caused by the network error.
+     */
+    static void abort(List<PipelineResult<?>> results, int from, IOException cause) {
+        for (int i = from; i < results.size(); i++) {
+            results.get(i).fail(new BeanstalkException("pipeline aborted: " + cause.getMessage(), cause));
+        }
+    }
+
+    private <T> PipelineResult<T> add(Request request, ResponseDecoder<T> decoder) {
+        PipelineResult<T> result = new PipelineResult<T>(decoder);
+        requests.add(request);
+        results.add(result);
+        return result;
+    }
+}
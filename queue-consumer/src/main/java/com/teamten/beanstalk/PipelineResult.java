@@ -0,0 +1,76 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * The eventual result of one command queued on a {@link Pipeline}.
+ */
+public class PipelineResult<T> {
+    private final ResponseDecoder<T> decoder;
+    private boolean done;
+    private T value;
+    private BeanstalkException exception;
+
+    PipelineResult(ResponseDecoder<T> decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Whether the pipeline has been synced and this command's response read.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get the result of the command, which is what the equivalent
+     * {@link BeanstalkClient} method would have returned.
+     *
+     * @throws IllegalStateException if the pipeline hasn't been synced yet.
+     * @throws BeanstalkException if this command got a protocol error, which
+     * is what the equivalent {@link BeanstalkClient} method would have thrown.
+     */
+    public T get() throws BeanstalkException {
+        if (!done) {
+            throw new IllegalStateException("pipeline not synced");
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return value;
+    }
+
+    void complete(Response response) {
+        try {
+            value = decoder.decode(response);
+        } catch (BeanstalkException e) {
+            exception = e;
+        }
+        done = true;
+    }
+
+    void fail(BeanstalkException e) {
+        exception = e;
+        done = true;
+    }
+}
@@ -0,0 +1,340 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A connection borrowed from a {@link BeanstalkClientPool}. Closing it
+ * returns it to the pool. It tracks the used tube and the watch list so
+ * that commands which wouldn't change them aren't sent.
+ */
+class PooledBeanstalkClient implements BeanstalkClient {
+    private final BeanstalkClientPool pool;
+    private final BeanstalkClientImpl client;
+    /**
+     * The tube being used, or null if unknown.
+     */
+    private String usedTube = Commands.DEFAULT_TUBE;
+    /**
+     * The tubes being watched, or null if unknown.
+     */
+    private Set<String> watched = new LinkedHashSet<String>();
+    private boolean borrowed;
+    private boolean broken;
+    private long lastReturned;
+
+    PooledBeanstalkClient(BeanstalkClientPool pool, BeanstalkClientImpl client) {
+        this.pool = pool;
+        this.client = client;
+        watched.add(Commands.DEFAULT_TUBE);
+    }
+
+    // ****************************************************************
+    // Producer methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long put(final long priority, final int delaySeconds, final int timeToRun, final byte[] data) throws IOException {
+        return call(() -> client.put(priority, delaySeconds, timeToRun, data));
+    }
+
+    @Override // BeanstalkClient
+    public void useTube(final String tubeName) throws IOException {
+        if (tubeName == null) {
+            throw new NullPointerException("null tubeName");
+        }
+        checkBorrowed();
+        if (tubeName.equals(usedTube)) {
+            return;
+        }
+        usedTube = null;
+        call(() -> {
+            client.useTube(tubeName);
+            return null;
+        });
+        usedTube = tubeName;
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	job-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Job reserve(final Integer timeoutSeconds) throws IOException {
+        return call(() -> client.reserve(timeoutSeconds));
+    }
+
+    @Override // BeanstalkClient
+    public boolean delete(final long jobId) throws IOException {
+        return call(() -> client.delete(jobId));
+    }
+
+    @Override // BeanstalkClient
+    public boolean release(final long jobId, final long priority, final int delaySeconds) throws IOException {
+        return call(() -> client.release(jobId, priority, delaySeconds));
+    }
+
+    @Override // BeanstalkClient
+    public boolean bury(final long jobId, final long priority) throws IOException {
+        return call(() -> client.bury(jobId, priority));
+    }
+
+    @Override // BeanstalkClient
+    public boolean touch(final long jobId) throws IOException {
+        return call(() -> client.touch(jobId));
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	tube-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public int watch(final String tubeName) throws IOException {
+        if (tubeName == null) {
+            throw new NullPointerException("null tubeName");
+        }
+        checkBorrowed();
+        if (watched != null && watched.contains(tubeName)) {
+            return watched.size();
+        }
+        Set<String> before = watched;
+        watched = null;
+        int count = call(() -> client.watch(tubeName));
+        if (before != null) {
+            before.add(tubeName);
+            watched = before;
+        }
+        return count;
+    }
+
+    @Override // BeanstalkClient
+    public int ignore(final String tubeName) throws IOException {
+        if (tubeName == null) {
+            throw new NullPointerException("null tubeName");
+        }
+        checkBorrowed();
+        if (watched != null && !watched.contains(tubeName)) {
+            return watched.size();
+        }
+        if (watched != null && watched.size() == 1) {
+            // The server won't ignore the last tube.
+            return -1;
+        }
+        Set<String> before = watched;
+        watched = null;
+        int count = call(() -> client.ignore(tubeName));
+        if (before != null) {
+            before.remove(tubeName);
+            watched = before;
+        }
+        return count;
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	peek-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Job peek(final long jobId) throws IOException {
+        return call(() -> client.peek(jobId));
+    }
+
+    @Override // BeanstalkClient
+    public Job peekReady() throws IOException {
+        return call(() -> client.peekReady());
+    }
+
+    @Override // BeanstalkClient
+    public Job peekDelayed() throws IOException {
+        return call(() -> client.peekDelayed());
+    }
+
+    @Override // BeanstalkClient
+    public Job peekBuried() throws IOException {
+        return call(() -> client.peekBuried());
+    }
+
+    @Override // BeanstalkClient
+    public int kick(final int count) throws IOException {
+        return call(() -> client.kick(count));
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	stats-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Map<String, String> statsJob(final long jobId) throws IOException {
+        return call(() -> client.statsJob(jobId));
+    }
+
+    @Override // BeanstalkClient
+    public Map<String, String> statsTube(final String tubeName) throws IOException {
+        return call(() -> client.statsTube(tubeName));
+    }
+
+    @Override // BeanstalkClient
+    public Map<String, String> stats() throws IOException {
+        return call(() -> client.stats());
+    }
+
+    @Override // BeanstalkClient
+    public List<String> listTubes() throws IOException {
+        return call(() -> client.listTubes());
+    }
+
+    @Override // BeanstalkClient
+    public String listTubeUsed() throws IOException {
+        return call(() -> client.listTubeUsed());
+    }
+
+    @Override // BeanstalkClient
+    public List<String> listTubesWatched() throws IOException {
+        return call(() -> client.listTubesWatched());
+    }
+
+    // ****************************************************************
+    // Bulk methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long[] putAll(final long priority, final int delaySeconds, final int timeToRun, final Collection<byte[]> data)
+        throws IOException {
+
+        return call(() -> client.putAll(priority, delaySeconds, timeToRun, data));
+    }
+
+    @Override // BeanstalkClient
+    public BitSet deleteAll(final long[] jobIds) throws IOException {
+        return call(() -> client.deleteAll(jobIds));
+    }
+
+    @Override // BeanstalkClient
+    public BitSet releaseAll(final long[] jobIds, final long priority, final int delaySeconds) throws IOException {
+        return call(() -> client.releaseAll(jobIds, priority, delaySeconds));
+    }
+
+    @Override // BeanstalkClient
+    public BitSet buryAll(final long[] jobIds, final long priority) throws IOException {
+        return call(() -> client.buryAll(jobIds, priority));
+    }
+
+    // ****************************************************************
+    // Pipelining
+    // ****************************************************************
+
+    /**
+     * Commands sent through the pipeline aren't tracked, so this forgets the
+     * tube state; the next use, watch or ignore always goes to the server.
+     */
+    @Override // BeanstalkClient
+    public Pipeline pipeline() {
+        checkBorrowed();
+        usedTube = null;
+        watched = null;
+        return client.pipeline();
+    }
+
+    // ****************************************************************
+    // Client methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public String getClientVersion() {
+        return client.getClientVersion();
+    }
+
+    @Override // BeanstalkClient
+    public String getServerVersion() throws IOException {
+        return call(() -> client.getServerVersion());
+    }
+
+    @Override // BeanstalkClient
+    public boolean pauseTube(final String tubeName, final int pause) throws IOException {
+        return call(() -> client.pauseTube(tubeName, pause));
+    }
+
+    /**
+     * Return the connection to the pool.
+     */
+    @Override // BeanstalkClient
+    public void close() {
+        if (borrowed) {
+            borrowed = false;
+            pool.giveBack(this);
+        }
+    }
+
+    // ****************************************************************
+    // Pool bookkeeping
+    // ****************************************************************
+    void borrowed() {
+        borrowed = true;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    long getLastReturned() {
+        return lastReturned;
+    }
+
+    void setLastReturned(long lastReturned) {
+        this.lastReturned = lastReturned;
+    }
+
+    void closeConnection() {
+        client.close();
+    }
+
+    private void checkBorrowed() {
+        if (!borrowed) {
+            throw new IllegalStateException("client returned to pool");
+        }
+    }
+
+    /**
+     * Run a command, marking the connection broken if it fails with a
+     * network error. A status error leaves the connection usable.
+     */
+    private <T> T call(Call<T> call) throws IOException {
+        checkBorrowed();
+        try {
+            return call.call();
+        } catch (StatusException e) {
+            throw e;
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+}
@@ -0,0 +1,394 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A client that survives the server going away. When a command fails with
+ * a network error, it reconnects, waiting a random time before each attempt
+ * with the bound doubling each time, so that a fleet of clients doesn't
+ * reconnect all at once after a server restart. The used tube and the watch
+ * list are then set up again on the new connection.
+ *
+ * <p>Commands that are safe to send twice are retried once on the new
+ * connection. {@link #put}, {@link #putAll} and {@link #kick} are not, since
+ * the server may have acted on them before the connection broke; they fail
+ * with the original exception, and the next call reconnects. Reservations
+ * don't survive a reconnect, so a retried release, bury or touch of a job
+ * reserved on the old connection reports that the job wasn't found.</p>
+ *
+ * <p>Like {@link BeanstalkClientImpl}, this class is not thread-safe.</p>
+ */
+public class ReconnectingBeanstalkClient implements BeanstalkClient {
+    private static final String CLIENT_VERSION = "1.4.8";
+    private final String host;
+    private final int port;
+    private final BeanstalkClientOptions options;
+    /**
+     * The current connection, or null if it broke and hasn't been replaced.
+     */
+    private BeanstalkClientImpl client;
+    private String usedTube = Commands.DEFAULT_TUBE;
+    private final Set<String> watched = new LinkedHashSet<String>();
+    private boolean closed;
+
+    /**
+     * Create a client with the default {@link BeanstalkClient#DEFAULT_HOST host}
+     * and {@link BeanstalkClient#DEFAULT_PORT port}.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public ReconnectingBeanstalkClient() throws IOException {
+        this(DEFAULT_HOST, DEFAULT_PORT, new BeanstalkClientOptions());
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting and
+     * reconnecting with the given options. The first connection is not
+     * retried.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public ReconnectingBeanstalkClient(String host, int port, BeanstalkClientOptions options) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.options = new BeanstalkClientOptions(options);
+        watched.add(Commands.DEFAULT_TUBE);
+        client = new BeanstalkClientImpl(host, port, this.options);
+    }
+
+    // ****************************************************************
+    // Producer methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long put(final long priority, final int delaySeconds, final int timeToRun, final byte[] data) throws IOException {
+        return call(false, client -> client.put(priority, delaySeconds, timeToRun, data));
+    }
+
+    @Override // BeanstalkClient
+    public void useTube(final String tubeName) throws IOException {
+        call(true, client -> {
+            client.useTube(tubeName);
+            return null;
+        });
+        usedTube = tubeName;
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	job-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Job reserve(final Integer timeoutSeconds) throws IOException {
+        return call(true, client -> client.reserve(timeoutSeconds));
+    }
+
+    @Override // BeanstalkClient
+    public boolean delete(final long jobId) throws IOException {
+        return call(true, client -> client.delete(jobId));
+    }
+
+    @Override // BeanstalkClient
+    public boolean release(final long jobId, final long priority, final int delaySeconds) throws IOException {
+        return call(true, client -> client.release(jobId, priority, delaySeconds));
+    }
+
+    @Override // BeanstalkClient
+    public boolean bury(final long jobId, final long priority) throws IOException {
+        return call(true, client -> client.bury(jobId, priority));
+    }
+
+    @Override // BeanstalkClient
+    public boolean touch(final long jobId) throws IOException {
+        return call(true, client -> client.touch(jobId));
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	tube-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public int watch(final String tubeName) throws IOException {
+        int count = call(true, client -> client.watch(tubeName));
+        watched.add(tubeName);
+        return count;
+    }
+
+    @Override // BeanstalkClient
+    public int ignore(final String tubeName) throws IOException {
+        int count = call(true, client -> client.ignore(tubeName));
+        if (count != -1) {
+            watched.remove(tubeName);
+        }
+        return count;
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	peek-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Job peek(final long jobId) throws IOException {
+        return call(true, client -> client.peek(jobId));
+    }
+
+    @Override // BeanstalkClient
+    public Job peekReady() throws IOException {
+        return call(true, client -> client.peekReady());
+    }
+
+    @Override // BeanstalkClient
+    public Job peekDelayed() throws IOException {
+        return call(true, client -> client.peekDelayed());
+    }
+
+    @Override // BeanstalkClient
+    public Job peekBuried() throws IOException {
+        return call(true, client -> client.peekBuried());
+    }
+
+    @Override // BeanstalkClient
+    public int kick(final int count) throws IOException {
+        return call(false, client -> client.kick(count));
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	stats-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Map<String, String> statsJob(final long jobId) throws IOException {
+        return call(true, client -> client.statsJob(jobId));
+    }
+
+    @Override // BeanstalkClient
+    public Map<String, String> statsTube(final String tubeName) throws IOException {
+        return call(true, client -> client.statsTube(tubeName));
+    }
+
+    @Override // BeanstalkClient
+    public Map<String, String> stats() throws IOException {
+        return call(true, client -> client.stats());
+    }
+
+    @Override // BeanstalkClient
+    public List<String> listTubes() throws IOException {
+        return call(true, client -> client.listTubes());
+    }
+
+    @Override // BeanstalkClient
+    public String listTubeUsed() throws IOException {
+        return call(true, client -> client.listTubeUsed());
+    }
+
+    @Override // BeanstalkClient
+    public List<String> listTubesWatched() throws IOException {
+        return call(true, client -> client.listTubesWatched());
+    }
+
+    // ****************************************************************
+    // Bulk methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long[] putAll(final long priority, final int delaySeconds, final int timeToRun, final Collection<byte[]> data)
+        throws IOException {
+
+        return call(false, client -> client.putAll(priority, delaySeconds, timeToRun, data));
+    }
+
+    @Override // BeanstalkClient
+    public BitSet deleteAll(final long[] jobIds) throws IOException {
+        return call(true, client -> client.deleteAll(jobIds));
+    }
+
+    @Override // BeanstalkClient
+    public BitSet releaseAll(final long[] jobIds, final long priority, final int delaySeconds) throws IOException {
+        return call(true, client -> client.releaseAll(jobIds, priority, delaySeconds));
+    }
+
+    @Override // BeanstalkClient
+    public BitSet buryAll(final long[] jobIds, final long priority) throws IOException {
+        return call(true, client -> client.buryAll(jobIds, priority));
+    }
+
+    // ****************************************************************
+    // Pipelining
+    // ****************************************************************
+
+    /**
+     * A pipeline on the current connection. Commands sent through it are
+     * neither retried nor tracked, so a use, watch or ignore sent this way
+     * is not replayed after a reconnect.
+     *
+     * @throws IllegalStateException if the connection broke and no command
+     * has reconnected it since.
+     */
+    @Override // BeanstalkClient
+    public Pipeline pipeline() {
+        checkOpen();
+        if (client == null) {
+            throw new IllegalStateException("not connected");
+        }
+        return client.pipeline();
+    }
+
+    // ****************************************************************
+    // Client methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public String getClientVersion() {
+        return CLIENT_VERSION;
+    }
+
+    @Override // BeanstalkClient
+    public String getServerVersion() throws IOException {
+        return call(true, client -> client.getServerVersion());
+    }
+
+    @Override // BeanstalkClient
+    public boolean pauseTube(final String tubeName, final int pause) throws IOException {
+        return call(true, client -> client.pauseTube(tubeName, pause));
+    }
+
+    @Override // BeanstalkClient
+    public void close() {
+        closed = true;
+        disconnect();
+    }
+
+    // ****************************************************************
+    // Reconnecting
+    // ****************************************************************
+
+    /**
+     * Run a command, reconnecting first if the connection is broken. If it
+     * fails with a network error, drop the connection and, if retry is set,
+     * reconnect and run it once more. A status error leaves the connection
+     * alone.
+     */
+    private <T> T call(boolean retry, Call<T> call) throws IOException {
+        checkOpen();
+        if (client == null) {
+            reconnect();
+        }
+        try {
+            return call.call(client);
+        } catch (StatusException e) {
+            throw e;
+        } catch (IOException e) {
+            disconnect();
+            if (!retry) {
+                throw e;
+            }
+        }
+
+        reconnect();
+        try {
+            return call.call(client);
+        } catch (StatusException e) {
+            throw e;
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a new connection and set up its tubes, backing off between
+     * attempts.
+     *
+     * @throws IOException from the last attempt, once the attempts run out.
+     */
+    private void reconnect() throws IOException {
+        int maxAttempts = options.getReconnectMaxAttempts();
+        Backoff backoff = new Backoff(options);
+        for (int attempt = 1; ; attempt++) {
+            // Wait before the first attempt too, so that clients that lost
+            // the same server don't all come back at once.
+            sleep(backoff.nextDelayMillis());
+
+            BeanstalkClientImpl newClient = null;
+            try {
+                newClient = new BeanstalkClientImpl(host, port, options);
+                replay(newClient);
+                client = newClient;
+                return;
+            } catch (StatusException e) {
+                // The server refused the session itself, so trying again
+                // won't help.
+                newClient.close();
+                throw e;
+            } catch (IOException e) {
+                if (newClient != null) {
+                    newClient.close();
+                }
+                if (attempt == maxAttempts) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restore the used tube and watch list on a new connection.
+     */
+    private void replay(BeanstalkClient newClient) throws IOException {
+        if (!usedTube.equals(Commands.DEFAULT_TUBE)) {
+            newClient.useTube(usedTube);
+        }
+        Commands.watchOnly(newClient, watched);
+    }
+
+    private static void sleep(long millis) throws BeanstalkException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BeanstalkException("interrupted while reconnecting");
+        }
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("client closed");
+        }
+    }
+
+    private interface Call<T> {
+        T call(BeanstalkClient client) throws IOException;
+    }
+}
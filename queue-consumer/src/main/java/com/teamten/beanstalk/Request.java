@@ -23,104 +23,47 @@ package com.teamten.beanstalk;
  */
 
 /**
- * Encapsulates a request to the server.
+ * Encapsulates a request to the server. The command line is kept as its
+ * parts, a verb, an optional tube name and numeric arguments, and is only
+ * put together by {@link CommandEncoder} as it's written out. What to expect
+ * back is described by the {@link CommandType}.
  */
 class Request {
 
-    private String command;
-    private String[] validStates;
-    private String[] errorStates;
-    private byte[] data;
-    private ExpectedResponse expectedResponse;
-    private int expectedDataLengthIndex;
-
-    public Request() {
-    }
-
-    public Request(String command, String[] validStates, String[] errorStates, byte[] data, ExpectedResponse expectedResponse) {
-        this.command = command;
-        this.validStates = validStates;
-        this.errorStates = errorStates;
-        this.data = data;
-        this.expectedResponse = expectedResponse;
-        this.expectedDataLengthIndex = -1;
-    }
-
-    public Request(String command, String[] validStates, String[] errorStates, byte[] data, ExpectedResponse expectedResponse, int expectedDataLengthIndex) {
-        this(command, validStates, errorStates, data, expectedResponse);
-        this.expectedDataLengthIndex = expectedDataLengthIndex;
-    }
-
-    public Request(String command, String validState, String errorState, byte[] data, ExpectedResponse expectedResponse) {
-        this.command = command;
-
-        if(validState != null) {
-            validStates = new String[] {
-                validState
-            };
-        }
-
-        if(errorState != null) {
-            errorStates = new String[] {
-                errorState
-            };
-        }
-
+    private final CommandType commandType;
+    private final String name;
+    private final long[] args;
+    private final byte[] data;
+
+    /**
+     * @param name The tube name that follows the verb, or null.
+     * @param args The numbers that follow the name, or null for none.
+     * @param data The job body, or null.
+     */
+    public Request(CommandType commandType, String name, long[] args, byte[] data) {
+        this.commandType = commandType;
+        this.name = name;
+        this.args = (args == null) ? CommandEncoder.NO_ARGS : args;
         this.data = data;
-        this.expectedResponse = expectedResponse;
-        this.expectedDataLengthIndex = -1;
-    }
-
-    public Request(String command, String validState, String errorState, byte[] data, ExpectedResponse expectedResponse, int expectedDataLengthIndex) {
-        this(command, validState, errorState, data, expectedResponse);
-        this.expectedDataLengthIndex = expectedDataLengthIndex;
-    }
-
-    public String getCommand() {
-        return command;
-    }
-
-    public void setCommand(String command) {
-        this.command = command;
     }
 
-    public String[] getValidStates() {
-        return validStates;
+    public CommandType getCommandType() {
+        return commandType;
     }
 
-    public void setValidStates(String[] validStates) {
-        this.validStates = validStates;
+    public String getName() {
+        return name;
     }
 
-    public String[] getErrorStates() {
-        return errorStates;
-    }
-
-    public void setErrorStates(String[] errorStates) {
-        this.errorStates = errorStates;
+    public long[] getArgs() {
+        return args;
     }
 
     public byte[] getData() {
         return data;
     }
 
-    public void setData(byte[] data) {
-        this.data = data;
-    }
-
     public ExpectedResponse getExpectedResponse() {
-        return expectedResponse;
-    }
-
-    public void setExpectedResponse(ExpectedResponse expectedResponse) {
-        this.expectedResponse = expectedResponse;
-    }
-
-    public void setExpectedDataLengthIndex(int index) {
-        this.expectedDataLengthIndex = index;
-    }
-
-    public int getExpectedDataLengthIndex() {
-        return this.expectedDataLengthIndex;
+        return commandType.expectedResponse;
     }
 }
@@ -25,13 +25,38 @@ package com.teamten.beanstalk;
 import java.io.*;
 
 /**
- * Utility classes for serializing Serializable objects to byte arrays, for putting
+ * Utility classes for serializing objects to byte arrays, for putting
  * into and getting out of jobs.
  */
 public class Serializer {
+    /**
+     * Encode a value with the {@link PayloadCodec} registered for its class.
+     *
+     * @throws IllegalArgumentException if no codec is registered for the
+     * value's class.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> byte[] toByteArray(T value) throws IOException {
+        return PayloadCodecs.forType((Class<T>) value.getClass()).encode(value);
+    }
+
+    /**
+     * Decode a byte array with the {@link PayloadCodec} registered for the type.
+     *
+     * @throws IllegalArgumentException if no codec is registered for the type.
+     */
+    public static <T> T fromByteArray(byte[] bytes, Class<T> type) throws IOException {
+        return PayloadCodecs.forType(type).decode(bytes);
+    }
+
     /**
      * Serialize an object to a byte array.
+     *
+     * @deprecated Java serialization is slow, large, and unsafe to use on
+     * data from the network. Register a {@link PayloadCodec} and use
+     * {@link #toByteArray} instead.
      */
+    @Deprecated
     public static byte[] serializableToByteArray(Serializable serializable) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(baos);
@@ -46,7 +71,10 @@ public class Serializer {
 
     /**
      * Deserialize a byte array into an object.
+     *
+     * @deprecated Use {@link #fromByteArray} with a {@link PayloadCodec}.
      */
+    @Deprecated
     public static Serializable byteArrayToSerializable(byte[] bytes) throws IOException, ClassNotFoundException {
         ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
         ObjectInputStream ois = new ObjectInputStream(bais);
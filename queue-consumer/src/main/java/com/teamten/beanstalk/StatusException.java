@@ -0,0 +1,45 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * Protocol error reporting that the server answered a command with a status
+ * that the client reports as an error, such as BAD_FORMAT, OUT_OF_MEMORY or
+ * JOB_TOO_BIG. The message is the status. Such a response has no body, so
+ * the connection is still usable afterwards.
+ *
+ * <p>Some of these, like DEADLINE_SOON, are routine under load, so no stack
+ * trace is captured for them.</p>
+ */
+public class StatusException extends BeanstalkException {
+    private static final long serialVersionUID = 3106612860442095731L;
+
+    StatusException(String status) {
+        super(status);
+    }
+
+    @Override // Throwable
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
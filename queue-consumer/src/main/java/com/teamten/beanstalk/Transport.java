@@ -0,0 +1,66 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The byte-level connection to the server that a {@link ProtocolHandler}
+ * talks through.
+ */
+interface Transport {
+    /**
+     * Allocate a buffer of the kind this transport reads into and writes
+     * from most cheaply.
+     */
+    ByteBuffer allocate(int capacity);
+
+    /**
+     * Read into the remaining space of dst, blocking until at least one byte
+     * has arrived. A non-blocking transport may instead return 0 when
+     * nothing has arrived.
+     *
+     * @return the number of bytes read, or -1 at end of stream.
+     *
+     * @throws java.net.SocketTimeoutException if nothing arrives within the
+     * read timeout.
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Write the remaining bytes of all the buffers, in order.
+     */
+    void write(ByteBuffer[] srcs, int offset, int length) throws IOException;
+
+    /**
+     * Set how long {@link #read} may block, in milliseconds. Zero means
+     * forever.
+     */
+    void setReadTimeout(int timeoutMs) throws IOException;
+
+    /**
+     * Close the connection, swallowing any exception.
+     */
+    void close();
+}
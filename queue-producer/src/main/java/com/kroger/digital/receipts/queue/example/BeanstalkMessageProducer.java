@@ -1,11 +1,12 @@
 package com.kroger.digital.receipts.queue.example;
 
 import com.teamten.beanstalk.BeanstalkClient;
-import com.teamten.beanstalk.BeanstalkClientImpl;
+import com.teamten.beanstalk.BeanstalkClientOptions;
+import com.teamten.beanstalk.Serializer;
+import com.teamten.beanstalk.SharedBeanstalkClient;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -19,6 +20,9 @@ public class BeanstalkMessageProducer {
     private static final int DEFAULT_DELAY_SECONDS = 0;
     private static final int DEFAULT_TTR_SECONDS = 120;
 
+    // One connection shared by all producer threads.
+    private static SharedBeanstalkClient client;
+
 
     public static void main(String[] args) throws Exception {
 
@@ -37,24 +41,39 @@ public class BeanstalkMessageProducer {
     public static void createMessage(BeanstalkClient client) {
         if (client == null) throw new RuntimeException("Unable to create client.  Aborting");
         try {
-            client.put(DEFAULT_PRIORITY, DEFAULT_DELAY_SECONDS, DEFAULT_TTR_SECONDS, serialize(QueueMessage.randomMessage()));
+            client.putPayload(DEFAULT_PRIORITY, DEFAULT_DELAY_SECONDS, DEFAULT_TTR_SECONDS, QueueMessage.randomMessage());
         } catch (Exception e) {
             System.out.println("Error: " +e.getMessage());
         }
 
     }
 
-    public static byte[] serialize(Object obj) throws IOException {
-        ByteArrayOutputStream b = new ByteArrayOutputStream();
-        ObjectOutputStream o = new ObjectOutputStream(b);
-        o.writeObject(obj);
-        return b.toByteArray();
+    public static void createMessages(BeanstalkClient client, int messages) {
+        if (client == null) throw new RuntimeException("Unable to create client.  Aborting");
+        try {
+            List<byte[]> data = new ArrayList<byte[]>(messages);
+            for (int i=0; i<messages; i++) {
+                data.add(Serializer.toByteArray(QueueMessage.randomMessage()));
+            }
+            long[] jobIds = client.putAll(DEFAULT_PRIORITY, DEFAULT_DELAY_SECONDS, DEFAULT_TTR_SECONDS, data);
+            for (long jobId : jobIds) {
+                if (jobId == -1) System.out.println("Error: message rejected by server");
+            }
+        } catch (Exception e) {
+            System.out.println("Error: " +e.getMessage());
+        }
     }
 
-
-    public static BeanstalkClient createClient()  {
+    public static synchronized BeanstalkClient createClient()  {
         try {
-
+            if (client == null) {
+                // Let puts from all threads within 2 ms go out as one write.
+                BeanstalkClientOptions options = new BeanstalkClientOptions();
+                options.setLingerMillis(2);
+                client = new SharedBeanstalkClient(BeanstalkClient.DEFAULT_HOST, BeanstalkClient.DEFAULT_PORT,
+                        options, 4096);
+            }
+            return client;
         } catch (Exception e) {
             System.out.println("Unable to connect to server: " +  e);
         }
@@ -68,15 +87,7 @@ public class BeanstalkMessageProducer {
                 BeanstalkClient client = createClient();
                 if (client == null)
                     throw new RuntimeException("Unable to create client.  Aborting. ");
-                try {
-                    for (int i=0; i<messages; i++) {
-                        createMessage(client);
-                    }
-
-                } finally
-                {
-                    client.close();
-                }
+                createMessages(client, messages);
             }
         };
 
@@ -1,7 +1,6 @@
 package com.kroger.digital.receipts.queue.example;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import com.teamten.beanstalk.BeanstalkPayload;
 
 import java.io.Serializable;
 import java.text.DateFormat;
@@ -11,7 +10,11 @@ import java.util.UUID;
 
 /**
  * Created by kon3982 on 1/26/16.
+ *
+ * QueueMessageCodec is generated from the fields at build time; equals()
+ * and hashCode() use the field comparisons it generates.
  */
+@BeanstalkPayload
 public class QueueMessage implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -39,11 +42,11 @@ public class QueueMessage implements Serializable {
     }
 
     public boolean equals(Object obj) {
-        return EqualsBuilder.reflectionEquals(this, obj);
+        return QueueMessageCodec.fieldsEqual(this, obj);
     }
 
     public int hashCode() {
-        return HashCodeBuilder.reflectionHashCode(this);
+        return QueueMessageCodec.fieldsHashCode(this);
     }
 
 
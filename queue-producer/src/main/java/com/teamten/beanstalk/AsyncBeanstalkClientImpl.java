@@ -0,0 +1,461 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concrete implementation of the AsyncBeanstalkClient interface. Commands
+ * are written by the calling thread. One reader thread per client reads the
+ * responses in order and completes the matching futures, so no thread is
+ * tied up per command in flight.
+ */
+public class AsyncBeanstalkClientImpl implements AsyncBeanstalkClient {
+    private static final String CLIENT_VERSION = "1.4.8";
+    private final ProtocolHandler protocolHandler;
+    /**
+     * Held while sending, so that requests go out in the same order as they
+     * are queued for the reader.
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
+    /**
+     * Requests that have been sent, waiting for their responses.
+     */
+    private final LinkedBlockingQueue<PendingRequest<?>> inFlight = new LinkedBlockingQueue<PendingRequest<?>>();
+    private final Thread reader;
+    /**
+     * Why the client stopped working, or null while it works.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Create a client with the default {@link BeanstalkClient#DEFAULT_HOST host}
+     * and {@link BeanstalkClient#DEFAULT_PORT port}.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public AsyncBeanstalkClientImpl() throws IOException {
+        this(BeanstalkClient.DEFAULT_HOST, BeanstalkClient.DEFAULT_PORT);
+    }
+
+    /**
+     * Create a client with the specified host and port.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public AsyncBeanstalkClientImpl(String host, int port) throws IOException {
+        this(host, port, TransportType.Socket);
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting through
+     * the given kind of transport.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public AsyncBeanstalkClientImpl(String host, int port, TransportType transportType) throws IOException {
+        this(host, port, BeanstalkClientImpl.options(transportType));
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting with the
+     * given options.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public AsyncBeanstalkClientImpl(String host, int port, BeanstalkClientOptions options) throws IOException {
+        protocolHandler = new ProtocolHandler(host, port, options);
+        reader = new Thread(new Runnable() {
+            public void run() {
+                readResponses();
+            }
+        }, "beanstalk-async-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // ****************************************************************
+    // Producer methods
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Long> put(long priority, int delaySeconds, int timeToRun, byte[] data) {
+        return send(Commands.put(priority, delaySeconds, timeToRun, data), Commands::jobId);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Void> useTube(String tubeName) {
+        return send(Commands.useTube(tubeName), response -> null);
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	job-related
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Job> reserve(Integer timeoutSeconds) {
+        return send(Commands.reserve(timeoutSeconds), Commands::reserved);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Boolean> delete(long jobId) {
+        return send(Commands.delete(jobId), Commands::ok);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Boolean> release(long jobId, long priority, int delaySeconds) {
+        return send(Commands.release(jobId, priority, delaySeconds), Commands::ok);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Boolean> bury(long jobId, long priority) {
+        return send(Commands.bury(jobId, priority), Commands::ok);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Boolean> touch(long jobId) {
+        return send(Commands.touch(jobId), Commands::ok);
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	tube-related
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Integer> watch(String tubeName) {
+        return send(Commands.watch(tubeName), Commands::watching);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Integer> ignore(String tubeName) {
+        return send(Commands.ignore(tubeName), Commands::ignored);
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	peek-related
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Job> peek(long jobId) {
+        return send(Commands.peek(jobId), Commands::job);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Job> peekReady() {
+        return send(Commands.peekReady(), Commands::job);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Job> peekDelayed() {
+        return send(Commands.peekDelayed(), Commands::job);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Job> peekBuried() {
+        return send(Commands.peekBuried(), Commands::job);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Integer> kick(final int count) {
+        return send(Commands.kick(count), response -> Commands.kicked(response, count));
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	stats-related
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Map<String, String>> statsJob(long jobId) {
+        return send(Commands.statsJob(jobId), Commands::map);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Map<String, String>> statsTube(String tubeName) {
+        if (tubeName == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(Commands.statsTube(tubeName), Commands::map);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Map<String, String>> stats() {
+        return send(Commands.stats(), Commands::map);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<List<String>> listTubes() {
+        return send(Commands.listTubes(), Commands::list);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<String> listTubeUsed() {
+        return send(Commands.listTubeUsed(), Commands::tube);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<List<String>> listTubesWatched() {
+        return send(Commands.listTubesWatched(), Commands::list);
+    }
+
+    // ****************************************************************
+    // Bulk methods
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<long[]> putAll(long priority, int delaySeconds, int timeToRun, Collection<byte[]> data) {
+        List<PendingRequest<Long>> pending = new ArrayList<PendingRequest<Long>>(data.size());
+        for (byte[] d : data) {
+            pending.add(new PendingRequest<Long>(Commands.put(priority, delaySeconds, timeToRun, d), Commands::jobId));
+        }
+        send(pending);
+
+        final List<CompletableFuture<Long>> futures = futures(pending);
+        return allDone(futures).thenApply(ignored -> {
+            long[] jobIds = new long[futures.size()];
+            for (int i = 0; i < jobIds.length; i++) {
+                CompletableFuture<Long> future = futures.get(i);
+                jobIds[i] = future.isCompletedExceptionally() ? -1 : future.join();
+            }
+            return jobIds;
+        });
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<BitSet> deleteAll(long[] jobIds) {
+        List<PendingRequest<Boolean>> pending = new ArrayList<PendingRequest<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            pending.add(new PendingRequest<Boolean>(Commands.delete(jobId), Commands::ok));
+        }
+        return sendForBitSet(pending);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<BitSet> releaseAll(long[] jobIds, long priority, int delaySeconds) {
+        List<PendingRequest<Boolean>> pending = new ArrayList<PendingRequest<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            pending.add(new PendingRequest<Boolean>(Commands.release(jobId, priority, delaySeconds), Commands::ok));
+        }
+        return sendForBitSet(pending);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<BitSet> buryAll(long[] jobIds, long priority) {
+        List<PendingRequest<Boolean>> pending = new ArrayList<PendingRequest<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            pending.add(new PendingRequest<Boolean>(Commands.bury(jobId, priority), Commands::ok));
+        }
+        return sendForBitSet(pending);
+    }
+
+    /**
+     * Send a burst of job commands and collect their results into a bit set,
+     * with a bit set for each job that was found.
+     */
+    private CompletableFuture<BitSet> sendForBitSet(List<PendingRequest<Boolean>> pending) {
+        send(pending);
+
+        final List<CompletableFuture<Boolean>> futures = futures(pending);
+        return allDone(futures).thenApply(ignored -> {
+            BitSet found = new BitSet(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                CompletableFuture<Boolean> future = futures.get(i);
+                if (!future.isCompletedExceptionally() && future.join()) {
+                    found.set(i);
+                }
+            }
+            return found;
+        });
+    }
+
+    private static <T> List<CompletableFuture<T>> futures(List<PendingRequest<T>> pending) {
+        List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(pending.size());
+        for (PendingRequest<T> p : pending) {
+            futures.add(p.future);
+        }
+        return futures;
+    }
+
+    /**
+     * A future that completes when all the futures are done, and fails only
+     * if one of them failed with something other than a protocol error.
+     */
+    private static CompletableFuture<Void> allDone(List<? extends CompletableFuture<?>> futures) {
+        CompletableFuture<?>[] array = futures.toArray(new CompletableFuture<?>[futures.size()]);
+        return CompletableFuture.allOf(array).handle((ignored, throwable) -> {
+            for (CompletableFuture<?> future : array) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof BeanstalkException)) {
+                        throw e;
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    // ****************************************************************
+    // Client methods
+    // ****************************************************************
+    @Override // AsyncBeanstalkClient
+    public String getClientVersion() {
+        return CLIENT_VERSION;
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<String> getServerVersion() {
+        return stats().thenApply(stats -> {
+            if (stats == null) {
+                throw new CompletionException(new BeanstalkException("could not get stats"));
+            }
+            return stats.get("version").trim();
+        });
+    }
+
+    @Override // AsyncBeanstalkClient
+    public CompletableFuture<Boolean> pauseTube(String tubeName, int pause) {
+        return send(Commands.pauseTube(tubeName, pause), Commands::ok);
+    }
+
+    @Override // AsyncBeanstalkClient
+    public void close() {
+        fail(new BeanstalkException("client closed"));
+    }
+
+    // ****************************************************************
+    // Sending and receiving
+    // ****************************************************************
+    private <T> CompletableFuture<T> send(Request request, ResponseDecoder<T> decoder) {
+        PendingRequest<T> pending = new PendingRequest<T>(request, decoder);
+        send(Collections.singletonList(pending));
+        return pending.future;
+    }
+
+    /**
+     * Send the requests in one write and queue them for the reader. If the
+     * client has failed, fail them instead.
+     */
+    private void send(List<? extends PendingRequest<?>> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Request> requests = new ArrayList<Request>(pending.size());
+        for (PendingRequest<?> p : pending) {
+            requests.add(p.request);
+        }
+
+        sendLock.lock();
+        try {
+            if (failure == null) {
+                // Queue first, in case the reader sees the response before
+                // we get out of the write.
+                inFlight.addAll(pending);
+                try {
+                    if (requests.size() == 1) {
+                        protocolHandler.sendRequest(requests.get(0));
+                    } else {
+                        protocolHandler.sendRequests(requests);
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                }
+                return;
+            }
+        } finally {
+            sendLock.unlock();
+        }
+
+        for (PendingRequest<?> p : pending) {
+            p.abort(failure);
+        }
+    }
+
+    /**
+     * Body of the reader thread.
+     */
+    private void readResponses() {
+        while (failure == null) {
+            PendingRequest<?> pending;
+            try {
+                pending = inFlight.take();
+            } catch (InterruptedException e) {
+                // Closed.
+                break;
+            }
+
+            Response response;
+            try {
+                response = protocolHandler.readResponse(pending.request);
+            } catch (StatusException e) {
+                // Unexpected status. It has no body, so the next response is
+                // still intact.
+                pending.fail(e);
+                continue;
+            } catch (IOException e) {
+                pending.fail(e);
+                fail(e);
+                break;
+            } catch (RuntimeException e) {
+                pending.fail(e);
+                fail(new IOException(e));
+                break;
+            }
+            pending.complete(response);
+        }
+    }
+
+    /**
+     * Mark the client as failed, close the connection and fail everything in
+     * flight.
+     */
+    private void fail(IOException cause) {
+        sendLock.lock();
+        try {
+            if (failure != null) {
+                return;
+            }
+            failure = cause;
+        } finally {
+            sendLock.unlock();
+        }
+
+        protocolHandler.close();
+        if (Thread.currentThread() != reader) {
+            reader.interrupt();
+        }
+        PendingRequest<?> pending;
+        while ((pending = inFlight.poll()) != null) {
+            pending.abort(cause);
+        }
+    }
+}
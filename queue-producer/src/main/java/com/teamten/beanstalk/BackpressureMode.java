@@ -0,0 +1,47 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * What a {@link BackpressureProducer} does with a put while the server is
+ * over its high-water marks.
+ */
+public enum BackpressureMode {
+    /**
+     * Delay each put by {@link BackpressurePolicy#getSlowDelayMillis()},
+     * then send it.
+     */
+    Slow,
+
+    /**
+     * Wait for the server to drain to its low-water marks, then send the
+     * put, failing if that takes longer than
+     * {@link BackpressurePolicy#getBlockTimeoutMillis()}.
+     */
+    Block,
+
+    /**
+     * Fail the put at once with a {@link BackpressureException}.
+     */
+    Shed
+}
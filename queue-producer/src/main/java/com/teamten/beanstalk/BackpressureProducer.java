@@ -0,0 +1,293 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Puts jobs into one tube through another client, holding back while the
+ * server is overloaded. A background thread samples the tube's and the
+ * server's stats over its own connection, and turns pressure on when a
+ * figure crosses its high-water mark in the {@link BackpressurePolicy} and
+ * off when all are back under their low-water marks. Under pressure, puts
+ * are slowed, blocked or shed according to the policy's
+ * {@link BackpressureMode}, so that a lagging consumer doesn't let the
+ * server run out of memory. If a few samples in a row fail, pressure is
+ * turned off until sampling works again, so that a broken sampling
+ * connection doesn't hold back puts that the client can still make.
+ *
+ * <p>This class is as thread-safe as the client it puts through; a
+ * {@link SharedBeanstalkClient} suits many producing threads. Closing it
+ * stops the sampling but leaves that client open.</p>
+ */
+public class BackpressureProducer {
+    /**
+     * How many samples in a row may fail before pressure is turned off.
+     */
+    private static final int MAX_FAILED_SAMPLES = 3;
+    private final BeanstalkClient client;
+    private final String host;
+    private final int port;
+    private final BeanstalkClientOptions options;
+    private final String tubeName;
+    private final BackpressurePolicy policy;
+    private final Thread sampler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition relieved = lock.newCondition();
+    private volatile boolean pressure;
+    private volatile boolean closed;
+    private volatile Map<String, String> tubeStats;
+    private volatile Map<String, String> serverStats;
+
+    /**
+     * Put through the client into the tube, sampling the server with the
+     * default options.
+     *
+     * @throws IOException if the client could not use the tube.
+     */
+    public BackpressureProducer(BeanstalkClient client, String tubeName, BackpressurePolicy policy) throws IOException {
+        this(client, BeanstalkClient.DEFAULT_HOST, BeanstalkClient.DEFAULT_PORT, new BeanstalkClientOptions(),
+                tubeName, policy);
+    }
+
+    /**
+     * Put through the client into the tube.
+     *
+     * @param host The server the client is connected to, for sampling.
+     * @param port Its port.
+     * @param options How to connect for sampling.
+     *
+     * @throws IOException if the client could not use the tube.
+     */
+    public BackpressureProducer(BeanstalkClient client, String host, int port, BeanstalkClientOptions options,
+                                String tubeName, BackpressurePolicy policy) throws IOException {
+        if (client == null) {
+            throw new NullPointerException("null client");
+        }
+        CommandEncoder.checkName(tubeName);
+        this.client = client;
+        this.host = host;
+        this.port = port;
+        this.options = new BeanstalkClientOptions(options);
+        this.tubeName = tubeName;
+        this.policy = new BackpressurePolicy(policy);
+        client.useTube(tubeName);
+        sampler = new Thread(this::sample, "beanstalk-backpressure");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Put a job, first holding back if the server is under pressure. See
+     * {@link BeanstalkClient#put}.
+     *
+     * @throws BackpressureException if the put was shed, or blocked for too
+     * long.
+     */
+    public long put(long priority, int delaySeconds, int timeToRun, byte[] data) throws IOException {
+        admit();
+        return client.put(priority, delaySeconds, timeToRun, data);
+    }
+
+    /**
+     * Put jobs, first holding back once for the batch if the server is
+     * under pressure. See {@link BeanstalkClient#putAll}.
+     *
+     * @throws BackpressureException if the puts were shed, or blocked for
+     * too long.
+     */
+    public long[] putAll(long priority, int delaySeconds, int timeToRun, Collection<byte[]> data) throws IOException {
+        admit();
+        return client.putAll(priority, delaySeconds, timeToRun, data);
+    }
+
+    /**
+     * Whether puts are currently being held back.
+     */
+    public boolean isUnderPressure() {
+        return pressure;
+    }
+
+    /**
+     * The tube's stats as last sampled, or null if not sampled yet or the
+     * tube didn't exist.
+     */
+    public Map<String, String> getTubeStats() {
+        return tubeStats;
+    }
+
+    /**
+     * The server's stats as last sampled, or null if not sampled yet.
+     */
+    public Map<String, String> getServerStats() {
+        return serverStats;
+    }
+
+    /**
+     * Stop sampling and let any blocked puts through. The client put
+     * through is not closed.
+     */
+    public void close() {
+        closed = true;
+        sampler.interrupt();
+        setPressure(false);
+    }
+
+    /**
+     * Hold the caller back as the policy says while under pressure.
+     */
+    private void admit() throws IOException {
+        if (!pressure) {
+            return;
+        }
+        switch (policy.getMode()) {
+            case Shed:
+                throw new BackpressureException();
+
+            case Slow:
+                try {
+                    Thread.sleep(policy.getSlowDelayMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BeanstalkException("interrupted waiting for backpressure");
+                }
+                break;
+
+            case Block:
+            default:
+                long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(policy.getBlockTimeoutMillis());
+                lock.lock();
+                try {
+                    while (pressure) {
+                        if (timeoutNanos == 0) {
+                            relieved.await();
+                        } else {
+                            timeoutNanos = relieved.awaitNanos(timeoutNanos);
+                            if (timeoutNanos <= 0 && pressure) {
+                                throw new BackpressureException();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BeanstalkException("interrupted waiting for backpressure");
+                } finally {
+                    lock.unlock();
+                }
+                break;
+        }
+    }
+
+    private void setPressure(boolean pressure) {
+        lock.lock();
+        try {
+            this.pressure = pressure;
+            if (!pressure) {
+                relieved.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ****************************************************************
+    // Sampling thread
+    // ****************************************************************
+
+    private void sample() {
+        BeanstalkClientImpl sampleClient = null;
+        int failedSamples = 0;
+        while (!closed) {
+            try {
+                if (sampleClient == null) {
+                    sampleClient = new BeanstalkClientImpl(host, port, options);
+                }
+                sample(sampleClient);
+                failedSamples = 0;
+            } catch (IOException e) {
+                if (sampleClient != null) {
+                    sampleClient.close();
+                    sampleClient = null;
+                }
+                // Keep the last verdict through a brief outage, but don't
+                // hold puts back on a verdict that can't be checked.
+                if (++failedSamples >= MAX_FAILED_SAMPLES && pressure) {
+                    setPressure(false);
+                }
+            }
+            try {
+                Thread.sleep(policy.getSampleIntervalMillis());
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        if (sampleClient != null) {
+            sampleClient.close();
+        }
+    }
+
+    private void sample(BeanstalkClient sampleClient) throws IOException {
+        Map<String, String> tube = sampleClient.statsTube(tubeName);
+        Map<String, String> server = sampleClient.stats();
+        tubeStats = tube;
+        serverStats = server;
+
+        // The tube doesn't exist until a job is put into it.
+        long ready = (tube != null) ? Commands.stat(tube, "current-jobs-ready") : 0;
+        long jobs = Commands.stat(server, "current-jobs-ready") + Commands.stat(server, "current-jobs-reserved")
+            + Commands.stat(server, "current-jobs-delayed") + Commands.stat(server, "current-jobs-buried");
+        // Servers without a binlog, or too old to report one, count as none.
+        long binlogFiles = 0;
+        if (server.containsKey("binlog-current-index")) {
+            long currentBinlog = Commands.stat(server, "binlog-current-index");
+            if (currentBinlog > 0) {
+                binlogFiles = currentBinlog - Commands.stat(server, "binlog-oldest-index") + 1;
+            }
+        }
+
+        boolean over = isOver(ready, policy.getTubeReadyHighWater())
+            || isOver(jobs, policy.getServerJobsHighWater())
+            || isOver(binlogFiles, policy.getBinlogFilesHighWater());
+        boolean under = isUnder(ready, policy.getTubeReadyHighWater(), policy.getTubeReadyLowWater())
+            && isUnder(jobs, policy.getServerJobsHighWater(), policy.getServerJobsLowWater())
+            && isUnder(binlogFiles, policy.getBinlogFilesHighWater(), policy.getBinlogFilesLowWater());
+        if (!pressure && over && !closed) {
+            setPressure(true);
+        } else if (pressure && under) {
+            setPressure(false);
+        }
+    }
+
+    private static boolean isOver(long value, long highWater) {
+        return highWater > 0 && value >= highWater;
+    }
+
+    private static boolean isUnder(long value, long highWater, long lowWater) {
+        return highWater == 0 || value <= lowWater;
+    }
+}
@@ -0,0 +1,297 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * Connection settings for a client. Read timeouts are chosen per command:
+ * a reserve with a server-side timeout may block that long plus a margin,
+ * a plain reserve may block for {@link #getReserveTimeoutMillis()}, which
+ * is forever by default, and every other command gets the short
+ * {@link #getReadTimeoutMillis()}.
+ *
+ * <p>Clients read the settings when they connect, so changing an options
+ * object afterwards doesn't affect connections already made.</p>
+ */
+public class BeanstalkClientOptions {
+    private TransportType transportType = TransportType.Socket;
+    private String unixSocketPath = null;
+    private int connectTimeoutMillis = 10*1000;
+    private int readTimeoutMillis = 10*1000;
+    private int reserveTimeoutMillis = 0;
+    private int reserveTimeoutMarginMillis = 5*1000;
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    private int reconnectBaseDelayMillis = 100;
+    private int reconnectMaxDelayMillis = 30*1000;
+    private int reconnectMaxAttempts = 10;
+    private int lingerMillis = 0;
+    private int maxBatchSize = 0;
+
+    /**
+     * Create options with the defaults.
+     */
+    public BeanstalkClientOptions() {
+    }
+
+    /**
+     * Create a copy of other.
+     */
+    public BeanstalkClientOptions(BeanstalkClientOptions other) {
+        transportType = other.transportType;
+        unixSocketPath = other.unixSocketPath;
+        connectTimeoutMillis = other.connectTimeoutMillis;
+        readTimeoutMillis = other.readTimeoutMillis;
+        reserveTimeoutMillis = other.reserveTimeoutMillis;
+        reserveTimeoutMarginMillis = other.reserveTimeoutMarginMillis;
+        tcpNoDelay = other.tcpNoDelay;
+        keepAlive = other.keepAlive;
+        sendBufferSize = other.sendBufferSize;
+        receiveBufferSize = other.receiveBufferSize;
+        reconnectBaseDelayMillis = other.reconnectBaseDelayMillis;
+        reconnectMaxDelayMillis = other.reconnectMaxDelayMillis;
+        reconnectMaxAttempts = other.reconnectMaxAttempts;
+        lingerMillis = other.lingerMillis;
+        maxBatchSize = other.maxBatchSize;
+    }
+
+    public TransportType getTransportType() {
+        return transportType;
+    }
+
+    /**
+     * How to connect. Defaults to {@link TransportType#Socket}.
+     */
+    public void setTransportType(TransportType transportType) {
+        if (transportType == null) {
+            throw new NullPointerException("null transportType");
+        }
+        this.transportType = transportType;
+    }
+
+    public String getUnixSocketPath() {
+        return unixSocketPath;
+    }
+
+    /**
+     * Path of the Unix domain socket of a co-located server started with
+     * {@code -l unix:/path}, or null, the default, to connect over TCP.
+     * When set, the host, port, transport type, TCP settings and connect
+     * timeout are ignored and the connection is a
+     * {@link java.nio.channels.SocketChannel}, which needs Java 16 or later.
+     */
+    public void setUnixSocketPath(String unixSocketPath) {
+        if (unixSocketPath != null && unixSocketPath.isEmpty()) {
+            throw new IllegalArgumentException("empty unixSocketPath");
+        }
+        this.unixSocketPath = unixSocketPath;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * How long to wait for the connection to be made. Zero means forever.
+     * Defaults to ten seconds. Not applied to a Unix domain socket, whose
+     * connect doesn't wait on the network.
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = checkTimeout(connectTimeoutMillis);
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * How long to wait for the response to anything but a reserve. Zero
+     * means forever. Defaults to ten seconds.
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = checkTimeout(readTimeoutMillis);
+    }
+
+    public int getReserveTimeoutMillis() {
+        return reserveTimeoutMillis;
+    }
+
+    /**
+     * How long to wait for a job after a reserve with no timeout. Zero, the
+     * default, means forever, which is what an idle consumer wants.
+     */
+    public void setReserveTimeoutMillis(int reserveTimeoutMillis) {
+        this.reserveTimeoutMillis = checkTimeout(reserveTimeoutMillis);
+    }
+
+    public int getReserveTimeoutMarginMillis() {
+        return reserveTimeoutMarginMillis;
+    }
+
+    /**
+     * How much longer than its own timeout to wait for a
+     * reserve-with-timeout to be answered. Defaults to five seconds.
+     */
+    public void setReserveTimeoutMarginMillis(int reserveTimeoutMarginMillis) {
+        this.reserveTimeoutMarginMillis = checkTimeout(reserveTimeoutMarginMillis);
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Whether to disable Nagle's algorithm. Defaults to true, since requests
+     * are already sent in as few writes as possible.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Whether to turn on TCP keepalive, so that a connection blocked in a
+     * long reserve notices when the server has gone. Defaults to true.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * The socket send buffer size in bytes, or zero for the system default.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = checkSize(sendBufferSize);
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * The socket receive buffer size in bytes, or zero for the system
+     * default.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = checkSize(receiveBufferSize);
+    }
+
+    public int getReconnectBaseDelayMillis() {
+        return reconnectBaseDelayMillis;
+    }
+
+    /**
+     * The longest wait before the first reconnect attempt of a
+     * {@link ReconnectingBeanstalkClient}. Each later attempt may wait up to
+     * twice as long as the one before, and the actual wait is picked at
+     * random up to that bound. Defaults to 100 ms.
+     */
+    public void setReconnectBaseDelayMillis(int reconnectBaseDelayMillis) {
+        if (reconnectBaseDelayMillis <= 0) {
+            throw new IllegalArgumentException("invalid delay");
+        }
+        this.reconnectBaseDelayMillis = reconnectBaseDelayMillis;
+    }
+
+    public int getReconnectMaxDelayMillis() {
+        return reconnectMaxDelayMillis;
+    }
+
+    /**
+     * The cap on the wait between reconnect attempts. Defaults to 30
+     * seconds.
+     */
+    public void setReconnectMaxDelayMillis(int reconnectMaxDelayMillis) {
+        if (reconnectMaxDelayMillis <= 0) {
+            throw new IllegalArgumentException("invalid delay");
+        }
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+    }
+
+    public int getReconnectMaxAttempts() {
+        return reconnectMaxAttempts;
+    }
+
+    /**
+     * How many times to try to reconnect before giving up and failing the
+     * call. Zero means forever. Defaults to ten.
+     */
+    public void setReconnectMaxAttempts(int reconnectMaxAttempts) {
+        if (reconnectMaxAttempts < 0) {
+            throw new IllegalArgumentException("invalid attempts");
+        }
+        this.reconnectMaxAttempts = reconnectMaxAttempts;
+    }
+
+    public int getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * How long a {@link SharedBeanstalkClient} holds a batch open for more
+     * commands after the first one arrives, so that many small puts from
+     * different threads go out in one write. Zero, the default, sends
+     * whatever is queued straight away.
+     */
+    public void setLingerMillis(int lingerMillis) {
+        this.lingerMillis = checkTimeout(lingerMillis);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * The most commands a {@link SharedBeanstalkClient} sends in one write.
+     * A lingering batch that fills up is sent at once. Zero, the default,
+     * means no limit beyond the client's queue capacity.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 0) {
+            throw new IllegalArgumentException("invalid maxBatchSize");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    private static int checkTimeout(int timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("invalid timeout");
+        }
+        return timeoutMillis;
+    }
+
+    private static int checkSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("invalid buffer size");
+        }
+        return size;
+    }
+}
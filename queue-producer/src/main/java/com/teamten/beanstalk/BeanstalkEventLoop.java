@@ -0,0 +1,266 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Serves many consumer connections from a few threads. Each loop thread owns
+ * a {@link Selector} and the non-blocking connections assigned to it. An idle
+ * connection costs a blocked reserve on the server, not a thread here.
+ * Reserved jobs are handed to a worker executor, and the deletes, releases,
+ * buries and touches that handlers issue are sent by the loop thread.
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class BeanstalkEventLoop {
+    private final IoThread[] ioThreads;
+    private final Executor workers;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Start the loop threads.
+     *
+     * @param threads The number of loop threads.
+     * @param workers The executor that reserved jobs are handed to.
+     *
+     * @throws IOException if a selector could not be opened.
+     */
+    public BeanstalkEventLoop(int threads, Executor workers) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("invalid thread count");
+        }
+        if (workers == null) {
+            throw new NullPointerException("null workers");
+        }
+        this.workers = workers;
+        ioThreads = new IoThread[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                ioThreads[i] = new IoThread("beanstalk-event-loop-" + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (IoThread ioThread : ioThreads) {
+            ioThread.thread.start();
+        }
+    }
+
+    /**
+     * Open a consumer connection with the default options. See
+     * {@link #connect(String, int, BeanstalkClientOptions, Collection, ReservedJobHandler)}.
+     */
+    public EventLoopConnection connect(String host, int port, Collection<String> tubes, ReservedJobHandler handler)
+        throws IOException {
+
+        return connect(host, port, new BeanstalkClientOptions(), tubes, handler);
+    }
+
+    /**
+     * Open a consumer connection that watches the given tubes and hands
+     * every job it reserves to the handler, one at a time. The connection is
+     * made asynchronously; see {@link EventLoopConnection#closeFuture()} to
+     * find out if it fails.
+     *
+     * @param options The connect timeout and TCP settings to use. The
+     * transport type, Unix socket path and read and reserve timeouts don't
+     * apply: the connection is always a non-blocking TCP channel that holds
+     * a reserve open.
+     * @param tubes The tubes to watch. The default tube is ignored unless
+     * it's in the list.
+     *
+     * @throws IOException if the connection could not be started.
+     */
+    public EventLoopConnection connect(String host, int port, BeanstalkClientOptions options,
+                                       Collection<String> tubes, ReservedJobHandler handler) throws IOException {
+
+        if (tubes.isEmpty()) {
+            throw new IllegalArgumentException("no tubes");
+        }
+        if (handler == null) {
+            throw new NullPointerException("null handler");
+        }
+        IoThread ioThread = ioThreads[(next.getAndIncrement() & Integer.MAX_VALUE) % ioThreads.length];
+        if (!ioThread.running) {
+            throw new IllegalStateException("event loop closed");
+        }
+        final EventLoopConnection connection = new EventLoopConnection(ioThread, host, port,
+                new BeanstalkClientOptions(options), new ArrayList<String>(tubes), handler, workers);
+        boolean queued = ioThread.execute(new Runnable() {
+            public void run() {
+                connection.register();
+            }
+        });
+        if (!queued) {
+            throw new IllegalStateException("event loop closed");
+        }
+        return connection;
+    }
+
+    /**
+     * Stop the loop threads and close all their connections. Jobs being
+     * handled are not waited for; their reservations end with the
+     * connection. Commands in flight or queued fail, and so do any issued
+     * afterwards.
+     */
+    public void close() {
+        for (IoThread ioThread : ioThreads) {
+            if (ioThread != null) {
+                ioThread.running = false;
+                ioThread.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * A loop thread and its selector.
+     */
+    static class IoThread implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        /**
+         * Connections still connecting, whose connect can time out. Only
+         * touched by the loop thread.
+         */
+        final List<EventLoopConnection> connecting = new ArrayList<EventLoopConnection>();
+        volatile boolean running = true;
+        /**
+         * Set before the last drain of the task queue. Tasks queued after
+         * that are refused.
+         */
+        private volatile boolean terminated;
+
+        IoThread(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Run the task on the loop thread.
+         *
+         * @return false if the loop has stopped and the task won't run.
+         */
+        boolean execute(Runnable task) {
+            tasks.add(task);
+            // If the last drain may have missed it, take it back. Whichever
+            // of us removes it first decides whether it runs.
+            if (terminated && tasks.remove(task)) {
+                return false;
+            }
+            selector.wakeup();
+            return true;
+        }
+
+        @Override // Runnable
+        public void run() {
+            IOException failure = null;
+            try {
+                while (running) {
+                    runTasks();
+                    selector.select(expireConnects());
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((EventLoopConnection) key.attachment()).onSelected(key);
+                    }
+                }
+            } catch (IOException e) {
+                // Selector failed. Fall through and close everything.
+                failure = e;
+            } finally {
+                running = false;
+                runTasks();
+                List<EventLoopConnection> connections = new ArrayList<EventLoopConnection>();
+                for (SelectionKey key : selector.keys()) {
+                    connections.add((EventLoopConnection) key.attachment());
+                }
+                for (EventLoopConnection connection : connections) {
+                    connection.closeNow(failure);
+                }
+                // Commands queued meanwhile find their connection closed
+                // and fail.
+                terminated = true;
+                runTasks();
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Swallow exception closing the selector.
+                }
+            }
+        }
+
+        /**
+         * Close the connections whose connect has timed out.
+         *
+         * @return how long until the next connect times out, or 0 if none
+         * can.
+         */
+        private long expireConnects() {
+            if (connecting.isEmpty()) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            long waitMillis = 0;
+            List<EventLoopConnection> expired = new ArrayList<EventLoopConnection>();
+            for (EventLoopConnection connection : connecting) {
+                long left = connection.connectDeadline - now;
+                if (left <= 0) {
+                    expired.add(connection);
+                } else {
+                    long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+                    waitMillis = (waitMillis == 0) ? millis : Math.min(waitMillis, millis);
+                }
+            }
+            for (EventLoopConnection connection : expired) {
+                connection.onConnectTimeout();
+            }
+            return waitMillis;
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // A bad task mustn't take the other connections down.
+                }
+            }
+        }
+    }
+}
@@ -35,4 +35,8 @@ public class BeanstalkException extends IOException {
     public BeanstalkException(String message) {
         super(message);
     }
+
+    public BeanstalkException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
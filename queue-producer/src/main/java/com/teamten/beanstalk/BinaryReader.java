@@ -0,0 +1,136 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the fields of a {@link BinaryCodec} payload, in the format
+ * {@link BinaryWriter} writes.
+ */
+public final class BinaryReader {
+    private final byte[] data;
+    private int position;
+
+    BinaryReader(byte[] data) {
+        this.data = data;
+    }
+
+    public boolean readBoolean() throws IOException {
+        check(1);
+        return data[position++] != 0;
+    }
+
+    public int readInt() throws IOException {
+        long value = readLong();
+        if (value != (int) value) {
+            throw new IOException("int out of range in payload");
+        }
+        return (int) value;
+    }
+
+    public long readLong() throws IOException {
+        long value = readUnsigned();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public float readFloat() throws IOException {
+        check(4);
+        int bits = 0;
+        for (int i = 0; i < 4; i++) {
+            bits = (bits << 8) | (data[position++] & 0xFF);
+        }
+        return Float.intBitsToFloat(bits);
+    }
+
+    public double readDouble() throws IOException {
+        check(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (data[position++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() throws IOException {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = Arrays.copyOfRange(data, position, position + length);
+        position += length;
+        return value;
+    }
+
+    int remaining() {
+        return data.length - position;
+    }
+
+    /**
+     * The length of a string or byte array, checked against what's left,
+     * or -1 for null.
+     */
+    private int readLength() throws IOException {
+        long length = readUnsigned() - 1;
+        if (length < -1) {
+            // A varint of ten bytes overflows into the sign bit.
+            throw new IOException("malformed length in payload");
+        }
+        if (length > remaining()) {
+            throw new EOFException("truncated payload");
+        }
+        return (int) length;
+    }
+
+    private long readUnsigned() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            check(1);
+            byte b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint in payload");
+    }
+
+    private void check(int length) throws EOFException {
+        if (position + length > data.length) {
+            throw new EOFException("truncated payload");
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport over a non-blocking {@link SocketChannel}. Reads and writes go
+ * through direct buffers, and a request made of several buffers is sent with
+ * one gathering write. Private selectors implement the read timeout, which
+ * a blocking channel would ignore. Reading and writing have a selector each,
+ * so one thread can read while another writes. The channel is either TCP
+ * or, for a co-located server, a Unix domain socket.
+ */
+class ChannelTransport implements Transport {
+    private final SocketChannel channel;
+    private final Selector readSelector;
+    private final SelectionKey readKey;
+    private final Selector writeSelector;
+    private final SelectionKey writeKey;
+    private int readTimeoutMs;
+
+    ChannelTransport(String host, int port, BeanstalkClientOptions options) throws IOException {
+        this(openTcp(host, port, options));
+    }
+
+    /**
+     * Take over a connected channel, closing it if that fails.
+     */
+    private ChannelTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        try {
+            channel.configureBlocking(false);
+            readSelector = Selector.open();
+            readKey = channel.register(readSelector, 0);
+            writeSelector = Selector.open();
+            writeKey = channel.register(writeSelector, 0);
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static SocketChannel openTcp(String host, int port, BeanstalkClientOptions options) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            // The socket adaptor is the only way to connect a channel with
+            // a timeout.
+            SocketTransport.connect(channel.socket(), host, port, options);
+            return channel;
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connect to a server listening on a Unix domain socket. The rest of the
+     * transport is the same as over TCP.
+     */
+    static ChannelTransport openUnix(String path, BeanstalkClientOptions options) throws IOException {
+        return new ChannelTransport(openUnixChannel(path, options));
+    }
+
+    /**
+     * Unix domain channels arrived in Java 16, so they're reached by
+     * reflection to keep building for Java 8. The options' connect timeout
+     * is ignored: a local connect doesn't block long enough to need one,
+     * the socket adaptor that would give one isn't supported for these
+     * channels, and a non-blocking connect fails outright rather than
+     * waiting when the server's backlog is full.
+     */
+    private static SocketChannel openUnixChannel(String path, BeanstalkClientOptions options) throws IOException {
+        SocketAddress address;
+        SocketChannel channel;
+        try {
+            address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class)
+                .invoke(null, path);
+            channel = (SocketChannel) SocketChannel.class
+                .getMethod("open", ProtocolFamily.class)
+                .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        } catch(InvocationTargetException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("can't open Unix domain socket " + path, e.getCause());
+        } catch(ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+        try {
+            if(options.getSendBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, options.getSendBufferSize());
+            }
+            if(options.getReceiveBufferSize() > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, options.getReceiveBufferSize());
+            }
+            channel.connect(address);
+            return channel;
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override // Transport
+    public ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override // Transport
+    public int read(ByteBuffer dst) throws IOException {
+        int readLength = channel.read(dst);
+        while(readLength == 0) {
+            await(readSelector, readKey, SelectionKey.OP_READ, readTimeoutMs);
+            readLength = channel.read(dst);
+        }
+        return readLength;
+    }
+
+    @Override // Transport
+    public void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long remaining = 0;
+        for(int i = offset; i < offset + length; i++) {
+            remaining += srcs[i].remaining();
+        }
+        while(true) {
+            remaining -= channel.write(srcs, offset, length);
+            if(remaining == 0) {
+                break;
+            }
+            // Socket send buffer is full.
+            await(writeSelector, writeKey, SelectionKey.OP_WRITE, 0);
+        }
+    }
+
+    @Override // Transport
+    public void setReadTimeout(int timeoutMs) {
+        readTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Block until the channel is ready for the operation, or throw if the
+     * timeout (if non-zero) elapses first.
+     */
+    private static void await(Selector selector, SelectionKey key, int ops, int timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + timeoutMs*1000000L;
+        key.interestOps(ops);
+        try {
+            while(select(selector, timeoutMs) == 0) {
+                if(timeoutMs > 0) {
+                    long left = deadline - System.nanoTime();
+                    if(left <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    timeoutMs = (int) Math.max(1, left/1000000L);
+                }
+            }
+        } finally {
+            if(selector.isOpen() && key.isValid()) {
+                selector.selectedKeys().clear();
+                key.interestOps(0);
+            }
+        }
+    }
+
+    @Override // Transport
+    public void close() {
+        closeQuietly(readSelector);
+        closeQuietly(writeSelector);
+        try {
+            channel.close();
+        } catch(Exception e) {
+            // Swallow exception closing the channel.
+        }
+    }
+
+    /**
+     * Select, turning the selector having been closed under us into the
+     * exception a closed channel would give.
+     */
+    private static int select(Selector selector, int timeoutMs) throws IOException {
+        try {
+            return selector.select(timeoutMs);
+        } catch(ClosedSelectorException e) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static void closeQuietly(Selector selector) {
+        if(selector != null) {
+            try {
+                selector.close();
+            } catch(Exception e) {
+                // Swallow exception closing the selector.
+            }
+        }
+    }
+}
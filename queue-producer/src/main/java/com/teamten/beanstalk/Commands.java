@@ -0,0 +1,295 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the request for each protocol command and interprets its
+ * response. Shared by every client that speaks the protocol, whether it
+ * sends one command at a time or many at once.
+ */
+class Commands {
+    /**
+     * The tube a new connection uses and watches.
+     */
+    static final String DEFAULT_TUBE = "default";
+    private static final long MAX_PRIORITY = 4294967296L;
+
+    private Commands() {
+        // Not instantiable.
+    }
+
+    // ****************************************************************
+    // Producer commands
+    // ****************************************************************
+    static Request put(long priority, int delaySeconds, int timeToRun, byte[] data) {
+        if (data == null) {
+            throw new NullPointerException("null data");
+        }
+        if (priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("invalid priority");
+        }
+        return new Request(CommandType.PUT, null, new long[] {priority, delaySeconds, timeToRun, data.length}, data);
+    }
+
+    /**
+     * @return the job ID, or -1 if there was no response.
+     *
+     * @throws JobTooBigException on JOB_TOO_BIG.
+     */
+    static long jobId(Response response) throws BeanstalkException {
+        long jobId = -1;
+        if (response != null && response.getStatus() == Status.JOB_TOO_BIG) {
+            throw new JobTooBigException();
+        }
+        if (response != null && response.isMatchOk()) {
+            jobId = response.getNumber();
+        }
+        return jobId;
+    }
+
+    static Request useTube(String tubeName) {
+        return new Request(CommandType.USE, CommandEncoder.checkName(tubeName), null, null);
+    }
+
+    // ****************************************************************
+    // Consumer commands
+    //	job-related
+    // ****************************************************************
+    static Request reserve(Integer timeoutSeconds) {
+        CommandType type = (timeoutSeconds == null) ? CommandType.RESERVE : CommandType.RESERVE_WITH_TIMEOUT;
+        long[] args = (timeoutSeconds == null) ? null : new long[] {timeoutSeconds};
+        return new Request(type, null, args, null);
+    }
+
+    /**
+     * @return the reserved job, or null on timeout.
+     *
+     * @throws DeadlineSoonException on DEADLINE_SOON.
+     */
+    static Job reserved(Response response) throws BeanstalkException {
+        if (response != null && response.getStatus() == Status.DEADLINE_SOON) {
+            throw new DeadlineSoonException();
+        }
+        return job(response);
+    }
+
+    static Request delete(long jobId) {
+        return new Request(CommandType.DELETE, null, new long[] {jobId}, null);
+    }
+
+    static Request release(long jobId, long priority, int delaySeconds) {
+        return new Request(CommandType.RELEASE, null, new long[] {jobId, priority, delaySeconds}, null);
+    }
+
+    static Request bury(long jobId, long priority) {
+        return new Request(CommandType.BURY, null, new long[] {jobId, priority}, null);
+    }
+
+    static Request touch(long jobId) {
+        return new Request(CommandType.TOUCH, null, new long[] {jobId}, null);
+    }
+
+    /**
+     * @return whether the command got one of its expected statuses, which for
+     * the job commands means the job was found.
+     */
+    static boolean ok(Response response) {
+        return response != null && response.isMatchOk();
+    }
+
+    // ****************************************************************
+    // Consumer commands
+    //	tube-related
+    // ****************************************************************
+    static Request watch(String tubeName) {
+        return new Request(CommandType.WATCH, CommandEncoder.checkName(tubeName), null, null);
+    }
+
+    static int watching(Response response) {
+        return (int) response.getNumber();
+    }
+
+    static Request ignore(String tubeName) {
+        return new Request(CommandType.IGNORE, CommandEncoder.checkName(tubeName), null, null);
+    }
+
+    /**
+     * @return the number of watched tubes, or -1 on NOT_IGNORED.
+     */
+    static int ignored(Response response) {
+        return (response.getStatus() == Status.NOT_IGNORED) ? -1 : (int) response.getNumber();
+    }
+
+    /**
+     * Make a new connection watch exactly the given tubes, which must not
+     * be empty.
+     */
+    static void watchOnly(BeanstalkClient client, Collection<String> tubes) throws IOException {
+        for (String tubeName : tubes) {
+            if (!tubeName.equals(DEFAULT_TUBE)) {
+                client.watch(tubeName);
+            }
+        }
+        if (!tubes.contains(DEFAULT_TUBE)) {
+            client.ignore(DEFAULT_TUBE);
+        }
+    }
+
+    // ****************************************************************
+    // Consumer commands
+    //	peek-related
+    // ****************************************************************
+    static Request peek(long jobId) {
+        return peekRequest(CommandType.PEEK, new long[] {jobId});
+    }
+
+    static Request peekBuried() {
+        return peekRequest(CommandType.PEEK_BURIED, null);
+    }
+
+    static Request peekDelayed() {
+        return peekRequest(CommandType.PEEK_DELAYED, null);
+    }
+
+    static Request peekReady() {
+        return peekRequest(CommandType.PEEK_READY, null);
+    }
+
+    private static Request peekRequest(CommandType type, long[] args) {
+        return new Request(type, null, args, null);
+    }
+
+    /**
+     * @return the job in a RESERVED or FOUND response, or null if there
+     * wasn't one.
+     */
+    static Job job(Response response) {
+        Job job = null;
+        if (response != null && response.isMatchOk()) {
+            long jobId = response.getNumber();
+            job = new JobImpl(jobId);
+            job.setData((byte[]) response.getData());
+        }
+        return job;
+    }
+
+    static Request kick(int count) {
+        return new Request(CommandType.KICK, null, new long[] {count}, null);
+    }
+
+    /**
+     * @return the number of jobs kicked, or the requested count if there was
+     * no response.
+     */
+    static int kicked(Response response, int count) {
+        if (response != null && response.isMatchOk()) {
+            count = (int) response.getNumber();
+        }
+        return count;
+    }
+
+    // ****************************************************************
+    // Consumer commands
+    //	stats-related
+    // ****************************************************************
+    static Request statsJob(long jobId) {
+        return new Request(CommandType.STATS_JOB, null, new long[] {jobId}, null);
+    }
+
+    static Request statsTube(String tubeName) {
+        return new Request(CommandType.STATS_TUBE, CommandEncoder.checkName(tubeName), null, null);
+    }
+
+    static Request stats() {
+        return new Request(CommandType.STATS, null, null, null);
+    }
+
+    /**
+     * @return the YAML map in the response, or null if not found.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> map(Response response) {
+        Map<String, String> map = null;
+        if (response != null && response.isMatchOk()) {
+            map = (Map<String, String>) response.getData();
+        }
+        return map;
+    }
+
+    static Request listTubes() {
+        return new Request(CommandType.LIST_TUBES, null, null, null);
+    }
+
+    static Request listTubesWatched() {
+        return new Request(CommandType.LIST_TUBES_WATCHED, null, null, null);
+    }
+
+    /**
+     * @return the YAML list in the response.
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> list(Response response) {
+        List<String> list = null;
+        if (response != null && response.isMatchOk()) {
+            list = (List<String>) response.getData();
+        }
+        return list;
+    }
+
+    static Request listTubeUsed() {
+        return new Request(CommandType.LIST_TUBE_USED, null, null, null);
+    }
+
+    /**
+     * @return the tube name in a USING response.
+     */
+    static String tube(Response response) {
+        String tubeName = null;
+        if (response != null && response.isMatchOk()) {
+            tubeName = response.getReponse();
+        }
+        return tubeName;
+    }
+
+    static Request pauseTube(String tubeName, int pauseDelay) {
+        return new Request(CommandType.PAUSE_TUBE, CommandEncoder.checkName(tubeName), new long[] {pauseDelay}, null);
+    }
+
+    /**
+     * @return a numeric field of a stats map, such as "pri" or "releases".
+     *
+     * @throws BeanstalkException if the field is missing or not a number.
+     */
+    static long stat(Map<String, String> stats, String key) throws BeanstalkException {
+        try {
+            return Long.parseLong(stats.get(key).trim());
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new BeanstalkException("invalid " + key + " in stats");
+        }
+    }
+}
@@ -22,6 +22,8 @@ package com.teamten.beanstalk;
  *
  */
 
+import java.io.IOException;
+
 /**
  * Interface for a job.
  *
@@ -44,4 +46,15 @@ public interface Job {
      * Set the raw data for this job.
      */
     public void setData(byte[] data);
+
+    /**
+     * Decode the data for this job with the {@link PayloadCodec} registered
+     * for the type.
+     *
+     * @throws IllegalArgumentException if no codec is registered for the type.
+     * @throws IOException if the data can't be decoded.
+     */
+    public default <T> T getPayload(Class<T> type) throws IOException {
+        return PayloadCodecs.forType(type).decode(getData());
+    }
 }
@@ -0,0 +1,72 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry of {@link PayloadCodec}s, by the type they handle. Codecs
+ * listed as services are loaded the first time the registry is used.
+ */
+public final class PayloadCodecs {
+    private static final ConcurrentMap<Class<?>, PayloadCodec<?>> CODECS =
+        new ConcurrentHashMap<Class<?>, PayloadCodec<?>>();
+
+    static {
+        for (PayloadCodec<?> codec : ServiceLoader.load(PayloadCodec.class, PayloadCodecs.class.getClassLoader())) {
+            CODECS.putIfAbsent(codec.getType(), codec);
+        }
+    }
+
+    private PayloadCodecs() {
+        // Not instantiable.
+    }
+
+    /**
+     * Register a codec for its type, replacing any registered before.
+     */
+    public static void register(PayloadCodec<?> codec) {
+        if (codec == null) {
+            throw new NullPointerException("null codec");
+        }
+        CODECS.put(codec.getType(), codec);
+    }
+
+    /**
+     * The codec for a type, or for the nearest superclass that has one.
+     *
+     * @throws IllegalArgumentException if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PayloadCodec<T> forType(Class<T> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            PayloadCodec<?> codec = CODECS.get(c);
+            if (codec != null) {
+                return (PayloadCodec<T>) codec;
+            }
+        }
+        throw new IllegalArgumentException("no payload codec for " + type.getName());
+    }
+}
@@ -22,12 +22,9 @@ package com.teamten.beanstalk;
  *
  */
 
-import java.io.*;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Communicates with the server.
@@ -36,90 +33,203 @@ class ProtocolHandler {
     private static final byte[] CRLF = {
         '\r', '\n'
     };
+    private static final int WRITE_BUFFER_SIZE = 16*1024;
+    private final Transport transport;
+    private final ResponseReader reader;
     /**
-     * Simple 30-second timeout for reads.
+     * Read timeouts from the options, or null if the caller manages them.
      */
-    private static final int TIMEOUT_MS = 30*1000;
-    private Socket socket;
+    private final BeanstalkClientOptions options;
+    /**
+     * The read timeout the transport currently has, or -1 if unknown.
+     */
+    private int readTimeoutMs = -1;
+    /**
+     * Holds the requests being sent.
+     */
+    private ByteBuffer header;
+    /**
+     * The \r\n after a job body; rewound before each use.
+     */
+    private final ByteBuffer crlf;
+    /**
+     * Header, body and \r\n, for gathering writes.
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[3];
 
-    ProtocolHandler(String host, int port) throws IOException {
-        socket = new Socket(host, port);
+    /**
+     * Connect with the given options. Each command's read timeout is chosen
+     * from the options as its response is read.
+     */
+    ProtocolHandler(String host, int port, BeanstalkClientOptions options) throws IOException {
+        this(connect(host, port, options), new BeanstalkClientOptions(options));
+    }
 
-        // Set a read timeout.
-        socket.setSoTimeout(TIMEOUT_MS);
+    /**
+     * Speak the protocol over an already connected transport, leaving its
+     * read timeout alone.
+     */
+    ProtocolHandler(Transport transport) {
+        this(transport, null);
+    }
+
+    private ProtocolHandler(Transport transport, BeanstalkClientOptions options) {
+        this.transport = transport;
+        this.options = options;
+        reader = new ResponseReader(transport);
+        header = transport.allocate(WRITE_BUFFER_SIZE);
+        crlf = transport.allocate(CRLF.length);
+        crlf.put(CRLF);
+    }
+
+    private static Transport connect(String host, int port, BeanstalkClientOptions options) throws IOException {
+        if(options.getUnixSocketPath() != null) {
+            return ChannelTransport.openUnix(options.getUnixSocketPath(), options);
+        }
+        switch(options.getTransportType()) {
+            case Channel:
+                return new ChannelTransport(host, port, options);
+            case Socket:
+            default:
+                return new SocketTransport(host, port, options);
+        }
     }
 
     /**
      * Send the request to the server and return its response.
      */
     Response processRequest(Request request) throws IOException {
+        sendRequest(request);
+        return readResponse(request);
+    }
+
+    /**
+     * Send the request without waiting for its response, which must then be
+     * read with {@link #readResponse}. Sending and reading may happen on
+     * different threads, but only one thread may send at a time, and only
+     * one may read.
+     */
+    void sendRequest(Request request) throws IOException {
         validateRequest(request);
+        header.clear();
+        writeRequest(request);
+        flush();
+    }
 
-        Response response = null;
-        InputStream is = null;
-        OutputStream os = null;
+    /**
+     * Send all the requests without waiting for any responses. Requests are
+     * packed into as few writes as possible. Their responses must then be
+     * read, in the same order, with {@link #readResponse}.
+     */
+    void sendRequests(List<Request> requests) throws IOException {
+        for(Request request : requests) {
+            validateRequest(request);
+        }
+        header.clear();
+        for(Request request : requests) {
+            writeRequest(request);
+        }
+        flush();
+    }
 
-        // formulate the request ...
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(request.getCommand().getBytes());
-        baos.write(CRLF);
-        if(request.getData() != null) {
-            baos.write(request.getData());
-            baos.write(CRLF);
+    /**
+     * Encode the request into the write buffer, first writing out what's
+     * already there if it doesn't fit. Small job bodies are copied in after
+     * the command; ones that don't fit in the buffer are sent with a
+     * gathering write of header, body and \r\n.
+     */
+    private void writeRequest(Request request) throws IOException {
+        byte[] data = request.getData();
+        int commandLength = CommandEncoder.length(request) + CRLF.length;
+        int dataLength = (data == null) ? 0 : data.length + CRLF.length;
+
+        if(commandLength + dataLength > header.remaining()) {
+            flush();
+            if(commandLength > header.capacity()) {
+                header = transport.allocate(commandLength);
+            }
         }
-        baos.flush();
-        os = socket.getOutputStream();
-        os.write(baos.toByteArray());
-        os.flush();
-        baos.close();
+        CommandEncoder.encode(request, header);
+        header.put(CRLF);
 
-        is = socket.getInputStream();
-        String line = new String(readInputStream(is, 0));
+        if(data != null) {
+            if(dataLength <= header.remaining()) {
+                header.put(data);
+                header.put(CRLF);
+            } else {
+                header.flip();
+                gather[0] = header;
+                gather[1] = ByteBuffer.wrap(data);
+                crlf.rewind();
+                gather[2] = crlf;
+                transport.write(gather, 0, 3);
+                gather[1] = null;
+                header.clear();
+            }
+        }
+    }
+
+    /**
+     * Write out whatever is in the write buffer and clear it.
+     */
+    private void flush() throws IOException {
+        if(header.position() > 0) {
+            header.flip();
+            gather[0] = header;
+            transport.write(gather, 0, 1);
+        }
+        header.clear();
+    }
 
-        String[] tokens = line.split(" ");
-        if(tokens == null || tokens.length == 0) {
-            throw new BeanstalkException("no response");
+    /**
+     * Read the response to a request that has already been sent, if all of
+     * it has arrived. For use with non-blocking transports.
+     *
+     * @return the response, or null if more bytes are needed, in which case
+     * nothing has been consumed.
+     */
+    Response pollResponse(Request request) throws IOException {
+        reader.mark();
+        try {
+            Response response = readResponse(request);
+            reader.unmark();
+            return response;
+        } catch(WouldBlockException e) {
+            reader.reset();
+            return null;
+        } catch(IOException e) {
+            reader.unmark();
+            throw e;
         }
+    }
 
-        response = new Response();
-        response.setResponseLine(line);
-        String status = tokens[0];
-        response.setStatus(status);
-        if(tokens.length > 1) {
-            response.setReponse(tokens[1]);
+    /**
+     * Read the response to a request that has already been sent.
+     */
+    Response readResponse(Request request) throws IOException {
+        if(options != null) {
+            setReadTimeout(readTimeout(request));
         }
-        setState(request, response, status);
+        Response response = new Response();
+        ExpectedResponse expectedResponse = request.getExpectedResponse();
+        reader.readResponseLine(response, expectedResponse);
+        setState(request.getCommandType(), response);
 
-        switch(request.getExpectedResponse()) {
+        switch(expectedResponse) {
             case Map:
                 if(response.isMatchError()) {
                     break;
                 }
-                response.setData(parseForMap(is));
+                response.setData(reader.readMap(dataLength(response)));
                 break;
             case List:
-                response.setData(parseForList(is));
+                response.setData(reader.readList(dataLength(response)));
                 break;
             case ByteArray:
                 if(response.isMatchError()) {
                     break;
                 }
-                int length;
-                if(request.getExpectedDataLengthIndex() > 0) {
-                    if (request.getExpectedDataLengthIndex() >= tokens.length) {
-                        throw new BeanstalkException("length missing from response line");
-                    }
-                    String lengthStr = tokens[request.getExpectedDataLengthIndex()];
-                    try {
-                        length = Integer.parseInt(lengthStr);
-                    } catch(NumberFormatException ex) {
-                        throw new BeanstalkException("could not parse response length \"" + lengthStr + "\"");
-                    }
-                } else {
-                    length = 0;
-                }
-                byte[] data = readInputStream(is, length);
-                response.setData(data);
+                response.setData(reader.readBody(dataLength(response)));
                 break;
             default:
                 break;
@@ -127,176 +237,69 @@ class ProtocolHandler {
         return response;
     }
 
-    private byte[] readInputStream(InputStream is, int expectedLength) throws IOException {
-        if(is == null) {
-            return null;
-        }
-
-        byte[] data;
-
-        if(expectedLength > 0) {
-            data = readInputStreamBurstMode(is, expectedLength);
-        } else {
-            data = readInputStreamSlowMode(is);
-        }
-        return data;
-    }
-
-    private byte[] readInputStreamBurstMode(InputStream is, int length) throws IOException {
-        byte[] data = new byte[length];
-        // changes per alaz
-        int off = 0;
-        int toRead = length;
-        while(toRead > 0) {
-            int readLength = is.read(data, off, toRead);
-            if(readLength == -1) {
-                throw new BeanstalkException(String.format("The end of InputStream is reached - %d bytes expected, %d bytes read", length, off + readLength));
-            }
-            off += readLength;
-            toRead -= readLength;
-        }
-        byte br = (byte) is.read();
-        byte bn = (byte) is.read();
-        if(br != '\r' || bn != '\n') {
-            throw new BeanstalkException("The end of InputStream is reached - End of line expected, but not found");
-        }
-        return data;
-    }
-
     /**
-     * This routine reads from the input stream until a \r\n pair is found.
-     * This must only be used for text lines in the protocol. Do you use this
-     * for job data, since that would prevent binary data from being sent.
+     * How long to wait for the request's response. A reserve-with-timeout
+     * is given its own timeout plus the margin, so that the server answers
+     * TIMED_OUT before we give up.
      */
-    private byte[] readInputStreamSlowMode(InputStream is) throws IOException {
-        boolean lastByteWasReturnByte = false;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        while(true) {
-            int intB = is.read();
-            byte b = (byte) intB;
-
-            /**
-             * prevent OutOfMemory exceptions, per leopoldkot
-             */
-            if(intB == -1) {
-                throw new BeanstalkException("The end of InputStream is reached");
-            }
-
-            if (lastByteWasReturnByte) {
-                if (b == '\n') {
-                    // End of line.
-                    break;
-                }
-
-                // Was lone \r.
-                lastByteWasReturnByte = false;
-                baos.write('\r');
-            }
-            if(b == '\r') {
-                lastByteWasReturnByte = true;
-            } else {
-                baos.write(b);
-            }
+    private int readTimeout(Request request) {
+        switch(request.getCommandType()) {
+            case RESERVE:
+                return options.getReserveTimeoutMillis();
+            case RESERVE_WITH_TIMEOUT:
+                long timeoutMs = request.getArgs()[0]*1000L + options.getReserveTimeoutMarginMillis();
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(timeoutMs, options.getReadTimeoutMillis()));
+            default:
+                return options.getReadTimeoutMillis();
         }
+    }
 
-        return baos.toByteArray();
+    private void setReadTimeout(int timeoutMs) throws IOException {
+        if(timeoutMs != readTimeoutMs) {
+            transport.setReadTimeout(timeoutMs);
+            readTimeoutMs = timeoutMs;
+        }
     }
 
     /**
      * Make sure the request is okay before processing it.
      *
-     * @throws NullPointerException if the request is null.
-     * @throws IllegalArgumentException if the contents of the request are not valid.
+     * @throws NullPointerException if the request or its command type is null.
      */
     private void validateRequest(Request request) {
         if(request == null) {
             throw new NullPointerException("null request");
         }
-
-        String command = request.getCommand();
-        if(command == null || command.length() == 0) {
-            throw new IllegalArgumentException("null or empty command");
-        }
-
-        String[] validStates = request.getValidStates();
-        if(validStates == null || validStates.length == 0) {
-            throw new IllegalArgumentException("null or empty validStates");
-        }
-    }
-
-    private void setState(Request request, Response response, String status) throws BeanstalkException {
-        for(String s : request.getValidStates()) {
-            if(status.equals(s)) {
-                response.setMatchOk(true);
-                break;
-            }
-        }
-
-        if(!response.isMatchOk() && request.getErrorStates() != null) {
-            for(String s : request.getErrorStates()) {
-                if(status.equals(s)) {
-                    response.setMatchError(true);
-                    break;
-                }
-            }
-        }
-
-        if(!response.isMatchOk() && !response.isMatchError()) {
-            throw new BeanstalkException(status);
+        if(request.getCommandType() == null) {
+            throw new NullPointerException("null commandType");
         }
     }
 
-    /**
-     * Parse a YAML map.
-     */
-    private Map<String, String> parseForMap(InputStream is) throws IOException {
-        Map<String, String> map = new LinkedHashMap<String, String>();
-        String line = null;
-
-        BufferedReader in = new BufferedReader(new InputStreamReader(is));
-        while((line = in.readLine()) != null) {
-            if(line.length() == 0) {
-                break;
-            }
-            String[] values = line.split(": ");
-            if(values.length != 2) {
-                continue;
-            }
-            map.put(values[0], values[1]);
+    private void setState(CommandType commandType, Response response) throws BeanstalkException {
+        Status status = response.getStatus();
+        if(commandType.isOk(status)) {
+            response.setMatchOk(true);
+        } else if(commandType.isError(status)) {
+            response.setMatchError(true);
+        } else {
+            throw new StatusException(status == Status.UNKNOWN ? response.getUnknownStatus() : status.name());
         }
-
-        return map;
     }
 
     /**
-     * Parse a YAML list of string.
+     * The length of the body announced on the response line.
      */
-    private List<String> parseForList(InputStream is) throws IOException {
-        List<String> list = new ArrayList<String>();
-        String line = null;
-
-        BufferedReader in = new BufferedReader(new InputStreamReader(is));
-        while((line = in.readLine()) != null) {
-            if(line.length() == 0) {
-                break;
-            }
-            if(line.equals("---")) {
-                continue;
-            }
-            list.add(line.substring(2));
+    private int dataLength(Response response) throws BeanstalkException {
+        int length = response.getDataLength();
+        if(length < 0) {
+            throw new BeanstalkException("missing or invalid length in response line");
         }
-
-        return list;
+        return length;
     }
 
     public void close() {
-        if(socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-            } catch(Exception e) {
-                // Swallow exception closing the socket.
-            }
+        if(transport != null) {
+            transport.close();
         }
     }
 }
@@ -27,21 +27,37 @@ package com.teamten.beanstalk;
  */
 class Response {
 
-    private String status;
+    private Status status;
+    private String unknownStatus;
     private String reponse;
-    private String responseLine;
+    private long number = -1;
+    private int dataLength = -1;
     private boolean matchOk;
     private boolean matchError;
     private Object data;
 
-    public String getStatus() {
+    public Status getStatus() {
         return status;
     }
 
-    public void setStatus(String status) {
+    public void setStatus(Status status) {
         this.status = status;
     }
 
+    /**
+     * The status word as sent, if it was {@link Status#UNKNOWN}.
+     */
+    public String getUnknownStatus() {
+        return unknownStatus;
+    }
+
+    public void setUnknownStatus(String unknownStatus) {
+        this.unknownStatus = unknownStatus;
+    }
+
+    /**
+     * The tube name on the response line, for commands that answer with one.
+     */
     public String getReponse() {
         return reponse;
     }
@@ -50,12 +66,27 @@ class Response {
         this.reponse = reponse;
     }
 
-    public String getResponseLine() {
-        return responseLine;
+    /**
+     * The job ID or count on the response line, or -1 if there wasn't one.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    public void setNumber(long number) {
+        this.number = number;
+    }
+
+    /**
+     * The length of the body that follows the response line, or -1 if it
+     * wasn't given.
+     */
+    public int getDataLength() {
+        return dataLength;
     }
 
-    public void setResponseLine(String responseLine) {
-        this.responseLine = responseLine;
+    public void setDataLength(int dataLength) {
+        this.dataLength = dataLength;
     }
 
     public boolean isMatchOk() {
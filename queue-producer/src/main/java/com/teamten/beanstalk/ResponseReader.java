@@ -0,0 +1,387 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads protocol lines and job bodies from the server through a single
+ * buffer that lives as long as the connection. Lines are found by scanning
+ * the buffer for \r\n, so a response costs one read call rather than one
+ * per byte. The buffer comes from the {@link Transport}, so it is direct when
+ * reading from a channel.
+ */
+class ResponseReader {
+    private static final int INITIAL_CAPACITY = 8*1024;
+    /**
+     * Number of slots in the YAML key cache. Must be a power of two.
+     */
+    private static final int KEY_CACHE_SIZE = 256;
+    private final Transport transport;
+    private ByteBuffer buffer;
+    /**
+     * Index of the next unconsumed byte.
+     */
+    private int position;
+    /**
+     * Index one past the last valid byte.
+     */
+    private int limit;
+    /**
+     * Index to rewind to if the response being read is incomplete, or -1.
+     */
+    private int mark = -1;
+    /**
+     * Keys seen in earlier YAML maps. The stats commands return the same keys
+     * every time, so polling them only allocates Strings for the values.
+     */
+    private final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+    ResponseReader(Transport transport) {
+        this.transport = transport;
+        buffer = transport.allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Read a response line up to the next \r\n and parse it in place: the
+     * status word is decoded to a {@link Status} and the arguments after it
+     * are parsed as numbers, or as a tube name for commands that answer with
+     * one. The line is never split into Strings.
+     */
+    void readResponseLine(Response response, ExpectedResponse expectedResponse) throws IOException {
+        // Filling may move the bytes, so only now is the position stable.
+        int end = lineEnd();
+        int start = position;
+        position = end + 2;
+
+        int statusEnd = indexOf(' ', start, end);
+        Status status = Status.decode(buffer, start, statusEnd - start);
+        response.setStatus(status);
+        if(status == Status.UNKNOWN) {
+            response.setUnknownStatus(ascii(start, statusEnd - start));
+        }
+        if(statusEnd == end) {
+            return;
+        }
+
+        int argStart = statusEnd + 1;
+        int argEnd = indexOf(' ', argStart, end);
+        switch(expectedResponse) {
+            case Name:
+                response.setReponse(ascii(argStart, argEnd - argStart));
+                break;
+            case Map:
+            case List:
+                response.setDataLength(length(argStart, argEnd));
+                break;
+            case ByteArray:
+                response.setNumber(number(argStart, argEnd));
+                if(argEnd < end) {
+                    response.setDataLength(length(argEnd + 1, indexOf(' ', argEnd + 1, end)));
+                }
+                break;
+            default:
+                response.setNumber(number(argStart, argEnd));
+                break;
+        }
+    }
+
+    /**
+     * Find the next \r\n at or after the position, reading more if needed.
+     *
+     * @return the index of the \r.
+     */
+    private int lineEnd() throws IOException {
+        int scanned = 0;
+        while(true) {
+            for(int i = position + scanned; i < limit - 1; i++) {
+                if(buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                    return i;
+                }
+            }
+            // Don't rescan what we've already looked at, except a trailing \r.
+            scanned = Math.max(0, limit - position - 1);
+            fill();
+        }
+    }
+
+    /**
+     * Parse the decimal digits in [from, to).
+     *
+     * @return the number, or -1 if there are no digits, anything else, or
+     * too many.
+     */
+    private long number(int from, int to) {
+        if(from == to) {
+            return -1;
+        }
+        long value = 0;
+        for(int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if(digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit)/10) {
+                return -1;
+            }
+            value = value*10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse a body length in [from, to), or -1 if it isn't a valid int.
+     */
+    private int length(int from, int to) {
+        long value = number(from, to);
+        return (value > Integer.MAX_VALUE) ? -1 : (int) value;
+    }
+
+    /**
+     * Read exactly length bytes of job data followed by \r\n. The data is
+     * gathered in the buffer and copied out once, into the returned array.
+     * If the buffer had to grow to hold it, it shrinks again afterwards.
+     */
+    byte[] readBody(int length) throws IOException {
+        int end = require(length);
+        byte[] data = new byte[length];
+        buffer.position(position);
+        buffer.get(data);
+        position = end + 2;
+        shrink();
+        return data;
+    }
+
+    /**
+     * Read a YAML map of exactly length bytes, as announced by the "OK
+     * &lt;bytes&gt;" line, plus the trailing \r\n. The document is parsed in
+     * place in the buffer. Lines without a ": " separator, such as the "---"
+     * header, are skipped.
+     */
+    Map<String, String> readMap(int length) throws IOException {
+        int end = require(length);
+        Map<String, String> map = new LinkedHashMap<String, String>();
+
+        int lineStart = position;
+        while(lineStart < end) {
+            int lineEnd = indexOf('\n', lineStart, end);
+            for(int i = lineStart; i < lineEnd - 1; i++) {
+                if(buffer.get(i) == ':' && buffer.get(i + 1) == ' ') {
+                    String key = key(lineStart, i - lineStart);
+                    String value = ascii(i + 2, lineEnd - i - 2);
+                    map.put(key, value);
+                    break;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        position = end + 2;
+        return map;
+    }
+
+    /**
+     * Read a YAML list of strings of exactly length bytes plus the trailing
+     * \r\n. Only lines of the form "- item" are kept.
+     */
+    List<String> readList(int length) throws IOException {
+        int end = require(length);
+        List<String> list = new ArrayList<String>();
+
+        int lineStart = position;
+        while(lineStart < end) {
+            int lineEnd = indexOf('\n', lineStart, end);
+            if(lineEnd - lineStart >= 2 && buffer.get(lineStart) == '-' && buffer.get(lineStart + 1) == ' ') {
+                list.add(ascii(lineStart + 2, lineEnd - lineStart - 2));
+            }
+            lineStart = lineEnd + 1;
+        }
+
+        position = end + 2;
+        return list;
+    }
+
+    /**
+     * Make sure that length bytes plus a \r\n are in the buffer, and check
+     * the \r\n.
+     *
+     * @return the index of the \r.
+     */
+    private int require(int length) throws IOException {
+        if(length < 0) {
+            throw new BeanstalkException("invalid response length " + length);
+        }
+        while(limit - position < length + 2) {
+            fill();
+        }
+        int end = position + length;
+        if(buffer.get(end) != '\r' || buffer.get(end + 1) != '\n') {
+            throw new BeanstalkException("The end of InputStream is reached - End of line expected, but not found");
+        }
+        return end;
+    }
+
+    /**
+     * Index of the first b in [from, to), or to if there is none.
+     */
+    private int indexOf(int b, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Return the String for the length bytes at off, reusing a cached
+     * instance when the same key was seen before.
+     */
+    private String key(int off, int length) {
+        int hash = 0;
+        for(int i = off; i < off + length; i++) {
+            hash = 31*hash + buffer.get(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+
+        String cached = keyCache[slot];
+        if(cached != null && cached.length() == length) {
+            int i = 0;
+            while(i < length && cached.charAt(i) == buffer.get(off + i)) {
+                i++;
+            }
+            if(i == length) {
+                return cached;
+            }
+        }
+
+        String key = ascii(off, length);
+        keyCache[slot] = key;
+        return key;
+    }
+
+    /**
+     * Decode length bytes at off as US-ASCII.
+     */
+    private String ascii(int off, int length) {
+        if(buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + off, length, StandardCharsets.US_ASCII);
+        }
+        char[] chars = new char[length];
+        for(int i = 0; i < length; i++) {
+            byte b = buffer.get(off + i);
+            chars[i] = (b >= 0) ? (char) b : '\uFFFD';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Remember the current position, so that a response that turns out to
+     * be incomplete can be read again from the start once more bytes arrive.
+     */
+    void mark() {
+        mark = position;
+    }
+
+    /**
+     * Go back to the marked position.
+     */
+    void reset() {
+        position = mark;
+        mark = -1;
+    }
+
+    /**
+     * Forget the mark, letting the bytes before the position be discarded.
+     */
+    void unmark() {
+        mark = -1;
+        shrink();
+    }
+
+    /**
+     * Go back to a buffer of the initial capacity if the buffer grew for a
+     * large body, so that one big job doesn't pin a big buffer for the life
+     * of the connection. Waits while marked, or while the unread bytes
+     * wouldn't fit.
+     */
+    private void shrink() {
+        int unread = limit - position;
+        if(buffer.capacity() <= INITIAL_CAPACITY || mark >= 0 || unread > INITIAL_CAPACITY) {
+            return;
+        }
+        ByteBuffer smaller = transport.allocate(INITIAL_CAPACITY);
+        buffer.limit(limit).position(position);
+        smaller.put(buffer);
+        buffer = smaller;
+        position = 0;
+        limit = unread;
+    }
+
+    /**
+     * Read more bytes from the transport into the buffer, making room first
+     * by compacting or growing it. Bytes from the mark on, if there is one,
+     * are kept.
+     *
+     * @throws WouldBlockException if the transport is non-blocking and has
+     * nothing to read.
+     */
+    private void fill() throws IOException {
+        int keep = (mark >= 0) ? mark : position;
+        if(keep == limit) {
+            position -= keep;
+            limit = 0;
+            if(mark >= 0) {
+                mark = 0;
+            }
+        } else if(limit == buffer.capacity()) {
+            if(keep > 0) {
+                buffer.limit(limit).position(keep);
+                buffer.compact();
+                limit -= keep;
+                position -= keep;
+                if(mark >= 0) {
+                    mark = 0;
+                }
+            } else {
+                ByteBuffer bigger = transport.allocate(buffer.capacity()*2);
+                buffer.limit(limit).position(0);
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+
+        buffer.limit(buffer.capacity()).position(limit);
+        int readLength = transport.read(buffer);
+        if(readLength == -1) {
+            throw new BeanstalkException("The end of InputStream is reached");
+        }
+        if(readLength == 0) {
+            throw WouldBlockException.INSTANCE;
+        }
+        limit += readLength;
+    }
+}
@@ -0,0 +1,112 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * How a {@link BeanstalkWorkerPool} or {@link BeanstalkConsumerRuntime}
+ * handles a job whose handler threw. The job is released with a delay that
+ * doubles with each earlier release, until it has been released
+ * {@link #getMaxReleases()} times; after that it's treated as poison and
+ * buried, so that it stops taking up workers and can be inspected and
+ * kicked by hand.
+ */
+public class RetryPolicy {
+    private int maxReleases = 5;
+    private int baseDelaySeconds = 1;
+    private int maxDelaySeconds = 5*60;
+
+    /**
+     * Create a policy with the defaults.
+     */
+    public RetryPolicy() {
+    }
+
+    /**
+     * Create a copy of other.
+     */
+    public RetryPolicy(RetryPolicy other) {
+        maxReleases = other.maxReleases;
+        baseDelaySeconds = other.baseDelaySeconds;
+        maxDelaySeconds = other.maxDelaySeconds;
+    }
+
+    public int getMaxReleases() {
+        return maxReleases;
+    }
+
+    /**
+     * How many times a job may be released before a failure buries it.
+     * Zero buries on the first failure. Defaults to five.
+     */
+    public void setMaxReleases(int maxReleases) {
+        if (maxReleases < 0) {
+            throw new IllegalArgumentException("invalid maxReleases");
+        }
+        this.maxReleases = maxReleases;
+    }
+
+    public int getBaseDelaySeconds() {
+        return baseDelaySeconds;
+    }
+
+    /**
+     * The delay of the first release. Defaults to one second.
+     */
+    public void setBaseDelaySeconds(int baseDelaySeconds) {
+        if (baseDelaySeconds < 0) {
+            throw new IllegalArgumentException("invalid delay");
+        }
+        this.baseDelaySeconds = baseDelaySeconds;
+    }
+
+    public int getMaxDelaySeconds() {
+        return maxDelaySeconds;
+    }
+
+    /**
+     * The cap on the release delay. Defaults to five minutes.
+     */
+    public void setMaxDelaySeconds(int maxDelaySeconds) {
+        if (maxDelaySeconds < 0) {
+            throw new IllegalArgumentException("invalid delay");
+        }
+        this.maxDelaySeconds = maxDelaySeconds;
+    }
+
+    /**
+     * Whether a job that failed after being released this many times should
+     * be buried.
+     */
+    public boolean shouldBury(int releases) {
+        return releases >= maxReleases;
+    }
+
+    /**
+     * The delay to release a job with that failed after being released this
+     * many times.
+     */
+    public int delaySeconds(int releases) {
+        long delay = (long) baseDelaySeconds << Math.min(releases, 31);
+        return (int) Math.min(delay, maxDelaySeconds);
+    }
+}
@@ -0,0 +1,103 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A job reserved by a {@link FanInConsumer}, tagged with the server it came
+ * from. Job IDs are only unique per server, so the job is finished through
+ * its own methods, which send the command back over the connection that
+ * reserved it.
+ */
+public class ServerJob implements Job {
+    private final EventLoopConnection connection;
+    private final String server;
+    private final long jobId;
+    private byte[] data;
+
+    ServerJob(EventLoopConnection connection, String server, Job job) {
+        this.connection = connection;
+        this.server = server;
+        this.jobId = job.getJobId();
+        this.data = job.getData();
+    }
+
+    /**
+     * The server that owns the job, as "host:port".
+     */
+    public String getServer() {
+        return server;
+    }
+
+    @Override // Job
+    public long getJobId() {
+        return jobId;
+    }
+
+    @Override // Job
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override // Job
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Delete the job.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> delete() {
+        return connection.delete(jobId);
+    }
+
+    /**
+     * Release the job.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> release(long priority, int delaySeconds) {
+        return connection.release(jobId, priority, delaySeconds);
+    }
+
+    /**
+     * Bury the job.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> bury(long priority) {
+        return connection.bury(jobId, priority);
+    }
+
+    /**
+     * Touch the job.
+     *
+     * @return whether the job was found.
+     */
+    public CompletableFuture<Boolean> touch() {
+        return connection.touch(jobId);
+    }
+}
@@ -0,0 +1,448 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A producer that spreads jobs over several servers, one connection each.
+ * Jobs are put round-robin, or by a key on a consistent hash ring with
+ * virtual nodes, so that adding or removing a server only moves the keys
+ * of the ring segments it gains or loses.
+ *
+ * <p>A server whose connection fails is marked unhealthy and skipped, its
+ * keys going to the next server on the ring, until a backoff taken from
+ * the options' reconnect delays has passed and it is tried again. The put
+ * that hit the failure is not retried elsewhere, since the server may have
+ * stored the job before the connection broke.</p>
+ *
+ * <p>Job IDs are only unique per server, so this is not a
+ * {@link BeanstalkClient}: consume from each server separately.</p>
+ *
+ * <p>Like {@link BeanstalkClientImpl}, this class is not thread-safe.</p>
+ */
+public class ShardedBeanstalkClient {
+    private static final int DEFAULT_VIRTUAL_NODES = 160;
+    /**
+     * Server stats that describe the process rather than count something,
+     * and so aren't summed.
+     */
+    private static final Set<String> UNSUMMED_STATS = new HashSet<String>(Arrays.asList(
+            "pid", "uptime", "max-job-size", "binlog-oldest-index", "binlog-current-index",
+            "binlog-max-size", "pause", "pause-time-left"));
+    private final BeanstalkClientOptions options;
+    private final int virtualNodes;
+    /**
+     * The servers in the order they were added, by "host:port".
+     */
+    private final Map<String, Shard> shards = new LinkedHashMap<String, Shard>();
+    private final TreeMap<Long, Shard> ring = new TreeMap<Long, Shard>();
+    private final List<Shard> shardList = new ArrayList<Shard>();
+    private int next;
+    private String usedTube = Commands.DEFAULT_TUBE;
+
+    /**
+     * Create a client with no servers and the default options.
+     */
+    public ShardedBeanstalkClient() {
+        this(new BeanstalkClientOptions(), DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Create a client with no servers.
+     *
+     * @param virtualNodes How many points each server gets on the hash
+     * ring. More points spread keys more evenly.
+     */
+    public ShardedBeanstalkClient(BeanstalkClientOptions options, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("invalid virtualNodes");
+        }
+        this.options = new BeanstalkClientOptions(options);
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Add a server. It's connected to when first routed to.
+     *
+     * @throws IllegalArgumentException if the server was already added.
+     */
+    public void addServer(String host, int port) {
+        String name = host + ":" + port;
+        if (shards.containsKey(name)) {
+            throw new IllegalArgumentException("server already added: " + name);
+        }
+        Shard shard = new Shard(host, port);
+        shards.put(name, shard);
+        shardList.add(shard);
+        for (int i = 0; i < virtualNodes; i++) {
+            // On the rare collision the earlier server keeps the point.
+            ring.putIfAbsent(hash(name + "#" + i), shard);
+        }
+    }
+
+    /**
+     * Remove a server and close its connection. Only the keys that hashed
+     * to it move.
+     *
+     * @return whether the server had been added.
+     */
+    public boolean removeServer(String host, int port) {
+        Shard shard = shards.remove(host + ":" + port);
+        if (shard == null) {
+            return false;
+        }
+        shardList.remove(shard);
+        ring.values().removeIf(s -> s == shard);
+        shard.disconnect();
+        return true;
+    }
+
+    /**
+     * The servers, as "host:port", in the order they were added.
+     */
+    public List<String> getServers() {
+        return new ArrayList<String>(shards.keySet());
+    }
+
+    /**
+     * Whether the server isn't currently marked unhealthy.
+     */
+    public boolean isHealthy(String host, int port) {
+        Shard shard = shards.get(host + ":" + port);
+        return shard != null && shard.isAvailable(System.nanoTime());
+    }
+
+    // ****************************************************************
+    // Producer methods
+    // ****************************************************************
+
+    /**
+     * Put a job on the next healthy server in turn.
+     *
+     * @return the job's ID on the server it was put on.
+     */
+    public long put(long priority, int delaySeconds, int timeToRun, byte[] data) throws IOException {
+        int size = shardList.size();
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            Shard shard = shardList.get((next + i) % size);
+            if (shard.isAvailable(now) && shard.connect()) {
+                next = (next + i + 1) % size;
+                return shard.call(client -> client.put(priority, delaySeconds, timeToRun, data));
+            }
+        }
+        throw noHealthyServers();
+    }
+
+    /**
+     * Put a job on the server that the key hashes to, or if it's unhealthy,
+     * on the next healthy server along the ring.
+     *
+     * @return the job's ID on the server it was put on.
+     */
+    public long put(String key, long priority, int delaySeconds, int timeToRun, byte[] data) throws IOException {
+        return shardFor(key).call(client -> client.put(priority, delaySeconds, timeToRun, data));
+    }
+
+    /**
+     * The server, as "host:port", that a put with this key would go to
+     * right now.
+     */
+    public String getServer(String key) throws IOException {
+        return shardFor(key).name;
+    }
+
+    /**
+     * Use the tube on every server. Servers that can't be reached now use
+     * it when they reconnect.
+     */
+    public void useTube(String tubeName) throws IOException {
+        CommandEncoder.checkName(tubeName);
+        usedTube = tubeName;
+        for (Shard shard : shardList) {
+            if (shard.client != null && !tubeName.equals(shard.usedTube)) {
+                try {
+                    shard.call(client -> {
+                        client.useTube(tubeName);
+                        return null;
+                    });
+                    shard.usedTube = tubeName;
+                } catch (StatusException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Marked unhealthy; the tube is used on reconnect.
+                }
+            }
+        }
+    }
+
+    // ****************************************************************
+    // Server methods
+    // ****************************************************************
+
+    /**
+     * The server stats summed over the healthy servers. Counts are added up;
+     * fields that describe a single process, such as the version or pid,
+     * are taken from the first server.
+     */
+    public Map<String, String> stats() throws IOException {
+        return sum(statsByServer().values());
+    }
+
+    /**
+     * The server stats of each healthy server, by "host:port".
+     */
+    public Map<String, Map<String, String>> statsByServer() throws IOException {
+        return collect(BeanstalkClient::stats);
+    }
+
+    /**
+     * The tube stats summed over the healthy servers that have the tube,
+     * or null if none do.
+     */
+    public Map<String, String> statsTube(String tubeName) throws IOException {
+        List<Map<String, String>> all = new ArrayList<Map<String, String>>();
+        for (Map<String, String> stats : collect(client -> client.statsTube(tubeName)).values()) {
+            if (stats != null) {
+                all.add(stats);
+            }
+        }
+        return all.isEmpty() ? null : sum(all);
+    }
+
+    /**
+     * The tubes that exist on any healthy server.
+     */
+    public List<String> listTubes() throws IOException {
+        Set<String> tubes = new LinkedHashSet<String>();
+        for (List<String> serverTubes : collect(BeanstalkClient::listTubes).values()) {
+            tubes.addAll(serverTubes);
+        }
+        return new ArrayList<String>(tubes);
+    }
+
+    /**
+     * Close every connection.
+     */
+    public void close() {
+        for (Shard shard : shardList) {
+            shard.disconnect();
+        }
+    }
+
+    // ****************************************************************
+    // Routing
+    // ****************************************************************
+
+    /**
+     * The first healthy server at or after the key's point on the ring,
+     * connected.
+     */
+    private Shard shardFor(String key) throws IOException {
+        if (key == null) {
+            throw new NullPointerException("null key");
+        }
+        long now = System.nanoTime();
+        Set<Shard> tried = new HashSet<Shard>();
+        long point = hash(key);
+        for (Iterable<Shard> segment : Arrays.asList(ring.tailMap(point).values(), ring.headMap(point).values())) {
+            for (Shard shard : segment) {
+                if (tried.add(shard) && shard.isAvailable(now) && shard.connect()) {
+                    return shard;
+                }
+                if (tried.size() == shards.size()) {
+                    throw noHealthyServers();
+                }
+            }
+        }
+        throw noHealthyServers();
+    }
+
+    /**
+     * Run the call on every healthy server, skipping those that fail with a
+     * network error.
+     */
+    private <T> Map<String, T> collect(Call<T> call) throws IOException {
+        Map<String, T> results = new LinkedHashMap<String, T>();
+        long now = System.nanoTime();
+        for (Shard shard : shardList) {
+            if (shard.isAvailable(now) && shard.connect()) {
+                try {
+                    results.put(shard.name, shard.call(call));
+                } catch (StatusException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Marked unhealthy.
+                }
+            }
+        }
+        if (results.isEmpty()) {
+            throw noHealthyServers();
+        }
+        return results;
+    }
+
+    private static Map<String, String> sum(Iterable<Map<String, String>> all) {
+        Map<String, String> total = new LinkedHashMap<String, String>();
+        for (Map<String, String> stats : all) {
+            for (Map.Entry<String, String> entry : stats.entrySet()) {
+                String key = entry.getKey();
+                String previous = total.get(key);
+                if (previous == null) {
+                    total.put(key, entry.getValue());
+                } else if (!UNSUMMED_STATS.contains(key)) {
+                    try {
+                        total.put(key, Long.toString(Long.parseLong(previous) + Long.parseLong(entry.getValue())));
+                    } catch (NumberFormatException e) {
+                        // Not a count; keep the first server's.
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    private static BeanstalkException noHealthyServers() {
+        return new BeanstalkException("no healthy servers");
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes, with a final mix so that nearby
+     * strings such as the virtual node names land far apart.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A server and its connection.
+     */
+    private final class Shard {
+        final String host;
+        final int port;
+        final String name;
+        BeanstalkClientImpl client;
+        String usedTube;
+        /**
+         * When an unhealthy server may be tried again, by System.nanoTime().
+         */
+        long retryAt;
+        /**
+         * Whether the last connection attempt or command failed with a
+         * network error.
+         */
+        boolean unhealthy;
+        final Backoff backoff = new Backoff(options);
+
+        Shard(String host, int port) {
+            this.host = host;
+            this.port = port;
+            name = host + ":" + port;
+        }
+
+        boolean isAvailable(long now) {
+            return client != null || !unhealthy || now - retryAt >= 0;
+        }
+
+        /**
+         * Connect if not connected, using the current tube.
+         *
+         * @return whether there is a connection.
+         */
+        boolean connect() throws StatusException {
+            if (client != null) {
+                return true;
+            }
+            try {
+                client = new BeanstalkClientImpl(host, port, options);
+                usedTube = Commands.DEFAULT_TUBE;
+                if (!usedTube.equals(ShardedBeanstalkClient.this.usedTube)) {
+                    client.useTube(ShardedBeanstalkClient.this.usedTube);
+                    usedTube = ShardedBeanstalkClient.this.usedTube;
+                }
+                unhealthy = false;
+                backoff.reset();
+                return true;
+            } catch (StatusException e) {
+                disconnect();
+                throw e;
+            } catch (IOException e) {
+                markUnhealthy();
+                return false;
+            }
+        }
+
+        /**
+         * Run a command, marking the server unhealthy if it fails with a
+         * network error. A status error leaves the connection usable.
+         */
+        <T> T call(Call<T> call) throws IOException {
+            try {
+                return call.call(client);
+            } catch (StatusException e) {
+                throw e;
+            } catch (IOException e) {
+                markUnhealthy();
+                throw e;
+            }
+        }
+
+        private void markUnhealthy() {
+            disconnect();
+            unhealthy = true;
+            retryAt = System.nanoTime() + backoff.nextDelayMillis()*1000000L;
+        }
+
+        void disconnect() {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+        }
+    }
+
+    private interface Call<T> {
+        T call(BeanstalkClient client) throws IOException;
+    }
+}
@@ -0,0 +1,602 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A client that many threads can share over a single connection. Calling
+ * threads queue their commands in a lock-free ring buffer and wait. One I/O
+ * thread drains everything queued, sends it in a single pipelined write,
+ * reads the responses in order and wakes the callers. The busier the client,
+ * the more commands go out per write. With a
+ * {@link BeanstalkClientOptions#setLingerMillis linger} set, the I/O thread
+ * waits that long after the first command of a batch for others to join it,
+ * trading a little latency for fewer, larger writes, and {@link #putAsync}
+ * lets a thread queue puts without waiting for each one.
+ *
+ * <p>The connection's state is shared too: {@link #useTube}, {@link #watch}
+ * and {@link #ignore} affect every thread. A blocking {@link #reserve} holds
+ * up everyone else's commands until it returns, so this client is meant for
+ * producers and for acknowledging jobs, not for reserving them.</p>
+ *
+ * <p>This class is thread-safe. Each {@link Pipeline} it returns is for one
+ * thread at a time.</p>
+ */
+public class SharedBeanstalkClient implements BeanstalkClient {
+    private static final String CLIENT_VERSION = "1.4.8";
+    private static final int DEFAULT_CAPACITY = 4096;
+    private final ProtocolHandler protocolHandler;
+    private final MpscRingBuffer<PendingRequest<?>> queue;
+    private final Thread ioThread;
+    private final long lingerNanos;
+    private final int maxBatchSize;
+    /**
+     * Set by the I/O thread just before it parks, so that callers know to
+     * wake it.
+     */
+    private volatile boolean parked;
+    /**
+     * Callers between checking {@link #failure} and finishing their offer.
+     * The I/O thread waits for these before failing what's left in the
+     * queue, so that nothing is stranded there.
+     */
+    private final AtomicInteger enqueuing = new AtomicInteger();
+    /**
+     * Why the client stopped working, or null while it works. Only used as
+     * the cause of each failed request's own exception.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Create a client with the default {@link BeanstalkClient#DEFAULT_HOST host}
+     * and {@link BeanstalkClient#DEFAULT_PORT port}.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public SharedBeanstalkClient() throws IOException {
+        this(DEFAULT_HOST, DEFAULT_PORT);
+    }
+
+    /**
+     * Create a client with the specified host and port.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public SharedBeanstalkClient(String host, int port) throws IOException {
+        this(host, port, TransportType.Socket, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting through
+     * the given kind of transport.
+     *
+     * @param capacity How many commands may be queued before callers have
+     * to wait for room.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public SharedBeanstalkClient(String host, int port, TransportType transportType, int capacity) throws IOException {
+        this(host, port, BeanstalkClientImpl.options(transportType), capacity);
+    }
+
+    /**
+     * Create a client with the specified host and port, connecting with the
+     * given options.
+     *
+     * @param capacity How many commands may be queued before callers have
+     * to wait for room.
+     *
+     * @throws IOException if it could not connect to the server.
+     */
+    public SharedBeanstalkClient(String host, int port, BeanstalkClientOptions options, int capacity) throws IOException {
+        queue = new MpscRingBuffer<PendingRequest<?>>(capacity);
+        lingerNanos = options.getLingerMillis()*1000000L;
+        maxBatchSize = (options.getMaxBatchSize() > 0) ? options.getMaxBatchSize() : Integer.MAX_VALUE;
+        protocolHandler = new ProtocolHandler(host, port, options);
+        ioThread = new Thread(new Runnable() {
+            public void run() {
+                processRequests();
+            }
+        }, "beanstalk-shared-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    // ****************************************************************
+    // Producer methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long put(long priority, int delaySeconds, int timeToRun, byte[] data) throws IOException {
+        return call(Commands.put(priority, delaySeconds, timeToRun, data), Commands::jobId);
+    }
+
+    /**
+     * Queue a put without waiting for it. The future completes with the job
+     * ID, or exceptionally with what {@link #put} would have thrown.
+     */
+    public CompletableFuture<Long> putAsync(long priority, int delaySeconds, int timeToRun, byte[] data) {
+        PendingRequest<Long> pending = new PendingRequest<Long>(Commands.put(priority, delaySeconds, timeToRun, data),
+                Commands::jobId);
+        try {
+            enqueue(pending);
+        } catch (IOException e) {
+            pending.fail(e);
+        }
+        return pending.future;
+    }
+
+    @Override // BeanstalkClient
+    public void useTube(String tubeName) throws IOException {
+        call(Commands.useTube(tubeName), response -> null);
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	job-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Job reserve(Integer timeoutSeconds) throws IOException {
+        return call(Commands.reserve(timeoutSeconds), Commands::reserved);
+    }
+
+    @Override // BeanstalkClient
+    public boolean delete(long jobId) throws IOException {
+        return call(Commands.delete(jobId), Commands::ok);
+    }
+
+    @Override // BeanstalkClient
+    public boolean release(long jobId, long priority, int delaySeconds) throws IOException {
+        return call(Commands.release(jobId, priority, delaySeconds), Commands::ok);
+    }
+
+    @Override // BeanstalkClient
+    public boolean bury(long jobId, long priority) throws IOException {
+        return call(Commands.bury(jobId, priority), Commands::ok);
+    }
+
+    @Override // BeanstalkClient
+    public boolean touch(long jobId) throws IOException {
+        return call(Commands.touch(jobId), Commands::ok);
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	tube-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public int watch(String tubeName) throws IOException {
+        return call(Commands.watch(tubeName), Commands::watching);
+    }
+
+    @Override // BeanstalkClient
+    public int ignore(String tubeName) throws IOException {
+        return call(Commands.ignore(tubeName), Commands::ignored);
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	peek-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Job peek(long jobId) throws IOException {
+        return call(Commands.peek(jobId), Commands::job);
+    }
+
+    @Override // BeanstalkClient
+    public Job peekBuried() throws IOException {
+        return call(Commands.peekBuried(), Commands::job);
+    }
+
+    @Override // BeanstalkClient
+    public Job peekDelayed() throws IOException {
+        return call(Commands.peekDelayed(), Commands::job);
+    }
+
+    @Override // BeanstalkClient
+    public Job peekReady() throws IOException {
+        return call(Commands.peekReady(), Commands::job);
+    }
+
+    @Override // BeanstalkClient
+    public int kick(final int count) throws IOException {
+        return call(Commands.kick(count), response -> Commands.kicked(response, count));
+    }
+
+    // ****************************************************************
+    // Consumer methods
+    //	stats-related
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public Map<String, String> statsJob(long jobId) throws IOException {
+        return call(Commands.statsJob(jobId), Commands::map);
+    }
+
+    @Override // BeanstalkClient
+    public Map<String, String> statsTube(String tubeName) throws IOException {
+        if (tubeName == null) {
+            return null;
+        }
+        return call(Commands.statsTube(tubeName), Commands::map);
+    }
+
+    @Override // BeanstalkClient
+    public Map<String, String> stats() throws IOException {
+        return call(Commands.stats(), Commands::map);
+    }
+
+    @Override // BeanstalkClient
+    public List<String> listTubes() throws IOException {
+        return call(Commands.listTubes(), Commands::list);
+    }
+
+    @Override // BeanstalkClient
+    public String listTubeUsed() throws IOException {
+        return call(Commands.listTubeUsed(), Commands::tube);
+    }
+
+    @Override // BeanstalkClient
+    public List<String> listTubesWatched() throws IOException {
+        return call(Commands.listTubesWatched(), Commands::list);
+    }
+
+    // ****************************************************************
+    // Bulk methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public long[] putAll(long priority, int delaySeconds, int timeToRun, Collection<byte[]> data) throws IOException {
+        List<PendingRequest<Long>> pending = new ArrayList<PendingRequest<Long>>(data.size());
+        for (byte[] d : data) {
+            pending.add(new PendingRequest<Long>(Commands.put(priority, delaySeconds, timeToRun, d), Commands::jobId));
+        }
+        enqueue(pending);
+
+        long[] jobIds = new long[pending.size()];
+        for (int i = 0; i < jobIds.length; i++) {
+            try {
+                jobIds[i] = await(pending.get(i).future);
+            } catch (StatusException e) {
+                jobIds[i] = -1;
+            }
+        }
+        return jobIds;
+    }
+
+    @Override // BeanstalkClient
+    public BitSet deleteAll(long[] jobIds) throws IOException {
+        List<PendingRequest<Boolean>> pending = new ArrayList<PendingRequest<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            pending.add(new PendingRequest<Boolean>(Commands.delete(jobId), Commands::ok));
+        }
+        return found(pending);
+    }
+
+    @Override // BeanstalkClient
+    public BitSet releaseAll(long[] jobIds, long priority, int delaySeconds) throws IOException {
+        List<PendingRequest<Boolean>> pending = new ArrayList<PendingRequest<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            pending.add(new PendingRequest<Boolean>(Commands.release(jobId, priority, delaySeconds), Commands::ok));
+        }
+        return found(pending);
+    }
+
+    @Override // BeanstalkClient
+    public BitSet buryAll(long[] jobIds, long priority) throws IOException {
+        List<PendingRequest<Boolean>> pending = new ArrayList<PendingRequest<Boolean>>(jobIds.length);
+        for (long jobId : jobIds) {
+            pending.add(new PendingRequest<Boolean>(Commands.bury(jobId, priority), Commands::ok));
+        }
+        return found(pending);
+    }
+
+    /**
+     * Send a burst of job commands and collect their results into a bit set,
+     * with a bit set for each job that was found.
+     */
+    private BitSet found(List<PendingRequest<Boolean>> pending) throws IOException {
+        enqueue(pending);
+
+        BitSet found = new BitSet(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                if (await(pending.get(i).future)) {
+                    found.set(i);
+                }
+            } catch (StatusException e) {
+                // Leave the bit clear.
+            }
+        }
+        return found;
+    }
+
+    // ****************************************************************
+    // Pipelining
+    // ****************************************************************
+
+    /**
+     * Return a pipeline whose commands are queued together when it's synced,
+     * and go out with whatever other threads have queued. Syncing doesn't
+     * hold up other threads' commands.
+     */
+    @Override // BeanstalkClient
+    public Pipeline pipeline() {
+        return new Pipeline(this::sendPipeline);
+    }
+
+    /**
+     * Queue a pipeline's commands, wait for their responses and complete
+     * its results.
+     */
+    private void sendPipeline(List<Request> requests, List<PipelineResult<?>> results) throws IOException {
+        List<PendingRequest<Response>> pending = new ArrayList<PendingRequest<Response>>(requests.size());
+        for (Request request : requests) {
+            pending.add(new PendingRequest<Response>(request, response -> response));
+        }
+        enqueue(pending);
+
+        int read = 0;
+        try {
+            for (; read < pending.size(); read++) {
+                Response response;
+                try {
+                    response = await(pending.get(read).future);
+                } catch (StatusException e) {
+                    results.get(read).fail(e);
+                    continue;
+                }
+                results.get(read).complete(response);
+            }
+        } catch (IOException e) {
+            Pipeline.abort(results, read, e);
+            throw e;
+        }
+    }
+
+    // ****************************************************************
+    // Client methods
+    // ****************************************************************
+    @Override // BeanstalkClient
+    public String getClientVersion() {
+        return CLIENT_VERSION;
+    }
+
+    @Override // BeanstalkClient
+    public String getServerVersion() throws IOException {
+        Map<String, String> stats = stats();
+        if (stats == null) {
+            throw new BeanstalkException("could not get stats");
+        }
+        return stats.get("version").trim();
+    }
+
+    /**
+     * Close the connection. Commands still queued or in flight fail, as do
+     * all later calls.
+     */
+    @Override // BeanstalkClient
+    public void close() {
+        fail(new BeanstalkException("client closed"));
+    }
+
+    @Override // BeanstalkClient
+    public boolean pauseTube(String tubeName, int pauseDelay) throws IOException {
+        return call(Commands.pauseTube(tubeName, pauseDelay), Commands::ok);
+    }
+
+    // ****************************************************************
+    // Queueing
+    // ****************************************************************
+
+    /**
+     * Queue the request and wait for its decoded response.
+     */
+    private <T> T call(Request request, ResponseDecoder<T> decoder) throws IOException {
+        PendingRequest<T> pending = new PendingRequest<T>(request, decoder);
+        enqueue(pending);
+        return await(pending.future);
+    }
+
+    private void enqueue(List<? extends PendingRequest<?>> pending) throws IOException {
+        for (PendingRequest<?> p : pending) {
+            enqueue(p);
+        }
+    }
+
+    /**
+     * Queue the request for the I/O thread, waiting for room if the buffer
+     * is full. If the client has failed, fail the request instead.
+     */
+    private void enqueue(PendingRequest<?> pending) throws IOException {
+        enqueuing.incrementAndGet();
+        try {
+            while (!queue.offer(pending)) {
+                if (failure != null) {
+                    break;
+                }
+                wakeIoThread();
+                LockSupport.parkNanos(1000);
+            }
+            if (failure != null) {
+                // The I/O thread may already have stopped draining.
+                pending.abort(failure);
+                return;
+            }
+        } finally {
+            enqueuing.decrementAndGet();
+        }
+        wakeIoThread();
+    }
+
+    private void wakeIoThread() {
+        if (parked) {
+            LockSupport.unpark(ioThread);
+        }
+    }
+
+    /**
+     * Wait for the future and unwrap its exception.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BeanstalkException("interrupted waiting for a response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // ****************************************************************
+    // I/O thread
+    // ****************************************************************
+
+    /**
+     * Body of the I/O thread. Each pass sends everything queued so far in
+     * one write and then reads all of its responses.
+     */
+    private void processRequests() {
+        List<PendingRequest<?>> batch = new ArrayList<PendingRequest<?>>();
+        List<Request> requests = new ArrayList<Request>();
+
+        while (failure == null) {
+            drain(batch, requests);
+            if (batch.isEmpty()) {
+                parked = true;
+                if (queue.isEmpty() && failure == null) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            if (lingerNanos > 0) {
+                linger(batch, requests);
+            }
+
+            int read = 0;
+            try {
+                if (requests.size() == 1) {
+                    protocolHandler.sendRequest(requests.get(0));
+                } else {
+                    protocolHandler.sendRequests(requests);
+                }
+                for (; read < batch.size(); read++) {
+                    Response response;
+                    try {
+                        response = protocolHandler.readResponse(requests.get(read));
+                    } catch (StatusException e) {
+                        // Unexpected status. It has no body, so the next
+                        // response is still intact.
+                        batch.get(read).fail(e);
+                        continue;
+                    }
+                    batch.get(read).complete(response);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            }
+            for (; read < batch.size(); read++) {
+                batch.get(read).abort(failure);
+            }
+            batch.clear();
+            requests.clear();
+        }
+
+        // Let callers that got past the failure check finish their offers,
+        // then fail everything they left behind.
+        while (enqueuing.get() > 0) {
+            Thread.yield();
+        }
+        PendingRequest<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.abort(failure);
+        }
+    }
+
+    /**
+     * Move queued requests into the batch, up to the maximum batch size.
+     */
+    private void drain(List<PendingRequest<?>> batch, List<Request> requests) {
+        PendingRequest<?> pending;
+        while (batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+            batch.add(pending);
+            requests.add(pending.request);
+        }
+    }
+
+    /**
+     * Wait up to the linger time for more requests to join the batch, or
+     * until it's full.
+     */
+    private void linger(List<PendingRequest<?>> batch, List<Request> requests) {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatchSize && failure == null) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            parked = true;
+            if (queue.isEmpty()) {
+                LockSupport.parkNanos(this, left);
+            }
+            parked = false;
+            drain(batch, requests);
+        }
+    }
+
+    /**
+     * Mark the client as failed, close the connection and wake the I/O
+     * thread so that it fails everything queued.
+     */
+    private void fail(IOException cause) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = cause;
+        }
+        protocolHandler.close();
+        LockSupport.unpark(ioThread);
+    }
+}
@@ -0,0 +1,122 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Transport over a blocking {@link Socket}.
+ */
+class SocketTransport implements Transport {
+    private final Socket socket;
+    private final InputStream is;
+    private final OutputStream os;
+    /**
+     * Scratch space for writes, so that a request goes out in one call
+     * however many buffers it is made of.
+     */
+    private byte[] scratch = new byte[8*1024];
+
+    SocketTransport(String host, int port, BeanstalkClientOptions options) throws IOException {
+        socket = new Socket();
+        try {
+            connect(socket, host, port, options);
+            is = socket.getInputStream();
+            os = socket.getOutputStream();
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Apply the socket options and connect. Buffer sizes are set first so
+     * that the TCP window can be scaled to match.
+     */
+    static void connect(Socket socket, String host, int port, BeanstalkClientOptions options) throws IOException {
+        socket.setTcpNoDelay(options.isTcpNoDelay());
+        socket.setKeepAlive(options.isKeepAlive());
+        if(options.getSendBufferSize() > 0) {
+            socket.setSendBufferSize(options.getSendBufferSize());
+        }
+        if(options.getReceiveBufferSize() > 0) {
+            socket.setReceiveBufferSize(options.getReceiveBufferSize());
+        }
+        socket.connect(new InetSocketAddress(host, port), options.getConnectTimeoutMillis());
+    }
+
+    @Override // Transport
+    public ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity);
+    }
+
+    @Override // Transport
+    public int read(ByteBuffer dst) throws IOException {
+        int readLength = is.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+        if(readLength > 0) {
+            dst.position(dst.position() + readLength);
+        }
+        return readLength;
+    }
+
+    @Override // Transport
+    public void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        int total = 0;
+        for(int i = offset; i < offset + length; i++) {
+            total += srcs[i].remaining();
+        }
+        if(total > scratch.length) {
+            scratch = new byte[Math.max(total, scratch.length*2)];
+        }
+
+        int off = 0;
+        for(int i = offset; i < offset + length; i++) {
+            int remaining = srcs[i].remaining();
+            srcs[i].get(scratch, off, remaining);
+            off += remaining;
+        }
+        os.write(scratch, 0, total);
+        os.flush();
+    }
+
+    @Override // Transport
+    public void setReadTimeout(int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+    }
+
+    @Override // Transport
+    public void close() {
+        if(!socket.isClosed()) {
+            try {
+                socket.close();
+            } catch(Exception e) {
+                // Swallow exception closing the socket.
+            }
+        }
+    }
+}
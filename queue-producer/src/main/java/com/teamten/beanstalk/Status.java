@@ -0,0 +1,139 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The statuses the server answers commands with. The names are exactly the
+ * words on the wire.
+ */
+enum Status {
+    OK,
+    FOUND,
+    USING,
+    BURIED,
+    KICKED,
+    PAUSED,
+    DELETED,
+    TOUCHED,
+    INSERTED,
+    RESERVED,
+    RELEASED,
+    WATCHING,
+    DRAINING,
+    TIMED_OUT,
+    NOT_FOUND,
+    BAD_FORMAT,
+    JOB_TOO_BIG,
+    NOT_IGNORED,
+    DEADLINE_SOON,
+    OUT_OF_MEMORY,
+    EXPECTED_CRLF,
+    INTERNAL_ERROR,
+    UNKNOWN_COMMAND,
+    /**
+     * Anything else the server might say.
+     */
+    UNKNOWN;
+
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+    /**
+     * This status's bit in a {@link CommandType}'s status masks.
+     */
+    final long bit = 1L << ordinal();
+
+    /**
+     * Decode the status word in the length bytes at off. The candidate is
+     * picked by length and first byte, so only one comparison is made.
+     */
+    static Status decode(ByteBuffer buffer, int off, int length) {
+        if (length == 0) {
+            return UNKNOWN;
+        }
+        byte first = buffer.get(off);
+        Status candidate;
+        switch (length) {
+            case 2:
+                candidate = OK;
+                break;
+            case 5:
+                candidate = (first == 'F') ? FOUND : USING;
+                break;
+            case 6:
+                candidate = (first == 'B') ? BURIED : (first == 'K') ? KICKED : PAUSED;
+                break;
+            case 7:
+                candidate = (first == 'D') ? DELETED : TOUCHED;
+                break;
+            case 8:
+                switch (first) {
+                    case 'I':
+                        candidate = INSERTED;
+                        break;
+                    case 'W':
+                        candidate = WATCHING;
+                        break;
+                    case 'D':
+                        candidate = DRAINING;
+                        break;
+                    default:
+                        // RESERVED and RELEASED differ in their third byte.
+                        candidate = (buffer.get(off + 2) == 'S') ? RESERVED : RELEASED;
+                        break;
+                }
+                break;
+            case 9:
+                candidate = (first == 'T') ? TIMED_OUT : NOT_FOUND;
+                break;
+            case 10:
+                candidate = BAD_FORMAT;
+                break;
+            case 11:
+                candidate = (first == 'J') ? JOB_TOO_BIG : NOT_IGNORED;
+                break;
+            case 13:
+                candidate = (first == 'D') ? DEADLINE_SOON : (first == 'O') ? OUT_OF_MEMORY : EXPECTED_CRLF;
+                break;
+            case 14:
+                candidate = INTERNAL_ERROR;
+                break;
+            case 15:
+                candidate = UNKNOWN_COMMAND;
+                break;
+            default:
+                return UNKNOWN;
+        }
+        return candidate.matches(buffer, off) ? candidate : UNKNOWN;
+    }
+
+    private boolean matches(ByteBuffer buffer, int off) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(off + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
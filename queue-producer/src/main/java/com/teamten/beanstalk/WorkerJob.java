@@ -0,0 +1,108 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A job reserved by a {@link BeanstalkWorkerPool}, with what the pool
+ * learned about it from the server when it was reserved. The pool touches
+ * the job before its reservation runs out, so the deadline moves on while
+ * the handler works.
+ */
+public class WorkerJob implements Job {
+    private final long jobId;
+    private byte[] data;
+    private final long priority;
+    private final int releases;
+    private volatile long deadlineNanos;
+    final int ttrSeconds;
+    /**
+     * The timer of the next touch. Only touched by the pool's reserving
+     * thread.
+     */
+    HashedTimingWheel.Timer<WorkerJob> lease;
+    /**
+     * The pool's connection that reserved the job, so that a job reserved
+     * before a reconnect isn't finished on the new connection.
+     */
+    final int generation;
+
+    WorkerJob(Job job, long priority, int releases, int ttrSeconds, long deadlineNanos, int generation) {
+        this.jobId = job.getJobId();
+        this.data = job.getData();
+        this.priority = priority;
+        this.releases = releases;
+        this.ttrSeconds = ttrSeconds;
+        this.deadlineNanos = deadlineNanos;
+        this.generation = generation;
+    }
+
+    @Override // Job
+    public long getJobId() {
+        return jobId;
+    }
+
+    @Override // Job
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override // Job
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * The job's priority, which it keeps when released.
+     */
+    public long getPriority() {
+        return priority;
+    }
+
+    /**
+     * How many times the job had been released before this reservation.
+     */
+    public int getReleases() {
+        return releases;
+    }
+
+    /**
+     * When the reservation ends unless the job is finished or touched, by
+     * {@link System#nanoTime()}.
+     */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * How long is left until the reservation ends, which may be negative.
+     */
+    public long getTimeLeftMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+}
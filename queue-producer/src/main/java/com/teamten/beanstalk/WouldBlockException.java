@@ -0,0 +1,44 @@
+package com.teamten.beanstalk;
+
+/*
+ *
+ * Copyright 2009-2010 Robert Tykulsker *
+ * This file is part of JavaBeanstalkCLient.
+ *
+ * JavaBeanstalkCLient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version, or alternatively, the BSD license
+ * supplied
+ * with this project in the file "BSD-LICENSE".
+ *
+ * JavaBeanstalkCLient is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JavaBeanstalkCLient. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import java.io.IOException;
+
+/**
+ * Thrown when a non-blocking transport runs out of bytes in the middle of a
+ * response. It is only a signal to try again later, so a single instance
+ * without a stack trace is shared.
+ */
+class WouldBlockException extends IOException {
+    private static final long serialVersionUID = 7203857021931548093L;
+    static final WouldBlockException INSTANCE = new WouldBlockException();
+
+    private WouldBlockException() {
+        super("would block");
+    }
+
+    @Override // Throwable
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}